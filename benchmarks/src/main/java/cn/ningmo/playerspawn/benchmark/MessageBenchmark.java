@@ -0,0 +1,58 @@
+package cn.ningmo.playerspawn.benchmark;
+
+import cn.ningmo.playerspawn.benchmark.stub.Stubs;
+import cn.ningmo.playerspawn.benchmark.stub.Stubs.RecordingSender;
+import cn.ningmo.playerspawn.utils.MessageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering and sending plugin messages, with and without placeholders.
+ * Run with -prof gc for the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBenchmark {
+    private PluginFixture fixture;
+    private RecordingSender sender;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.create(0, 10, 4);
+        sender = Stubs.sender();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+    
+    @Benchmark
+    public Object sendPlain() {
+        MessageUtils.sendMessage(sender.getSender(), "commands.invalid-syntax");
+        return sender.getLast();
+    }
+    
+    @Benchmark
+    public Object sendWithPlaceholders() {
+        MessageUtils.sendMessage(sender.getSender(), "commands.set.success-world",
+                "{player}", "Steve", "{world}", "world", "{x}", "100.5", "{y}", "64.0", "{z}", "-20.5");
+        return sender.getLast();
+    }
+}
\ No newline at end of file
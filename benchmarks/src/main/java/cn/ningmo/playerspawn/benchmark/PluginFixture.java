@@ -0,0 +1,258 @@
+package cn.ningmo.playerspawn.benchmark;
+
+import cn.ningmo.playerspawn.PlayerSpawn;
+import cn.ningmo.playerspawn.benchmark.stub.Stubs;
+import cn.ningmo.playerspawn.config.ConfigManager;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.spawn.SpawnBalancer;
+import cn.ningmo.playerspawn.spawn.SpawnRegistry;
+import cn.ningmo.playerspawn.storage.FilePlayerSpawnStore;
+import cn.ningmo.playerspawn.storage.FileLogoutLocationStore;
+import cn.ningmo.playerspawn.storage.PlayerSpawnStore;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * A headless plugin instance with a generated config, player records and stub players.
+ * Sizes follow a large network: many players, tens of groups and many worlds.
+ */
+public final class PluginFixture {
+    // Share of players with a personal spawn, and the number of groups each player belongs to
+    private static final double PERSONAL_SPAWN_SHARE = 0.1;
+    private static final int GROUPS_PER_PLAYER = 2;
+    // Plugin fields left unset on purpose, they need the scheduler, listeners or a database
+    private static final Set<String> UNUSED_FIELDS = new HashSet<>(Arrays.asList("dataSource", "spawnChunkManager",
+            "teleportQueue", "playerListener", "configuredExporter", "exportTask", "pendingReload"));
+    
+    private static Server server;
+    
+    private final File dataFolder;
+    private final PlayerSpawn plugin;
+    private final List<World> worlds;
+    private final Player[] players;
+    
+    private PluginFixture(File dataFolder, PlayerSpawn plugin, List<World> worlds, Player[] players) {
+        this.dataFolder = dataFolder;
+        this.plugin = plugin;
+        this.worlds = worlds;
+        this.players = players;
+    }
+    
+    /**
+     * Generate a config and player records and start the plugin on them
+     * @param playerCount The number of players
+     * @param groupCount The number of spawn groups
+     * @param worldCount The number of worlds
+     * @return The fixture
+     */
+    public static PluginFixture create(int playerCount, int groupCount, int worldCount) throws Exception {
+        List<World> worlds = new ArrayList<>();
+        for (int i = 0; i < worldCount; i++) {
+            worlds.add(Stubs.world(i == 0 ? "world" : "world_" + i));
+        }
+        installServer(worlds);
+        
+        File dataFolder = Files.createTempDirectory("playerspawn-bench").toFile();
+        writeConfig(new File(dataFolder, "config.yml"), groupCount, worlds);
+        
+        PlayerSpawn plugin = bootstrap(dataFolder);
+        Random random = new Random(42);
+        Player[] players = new Player[playerCount];
+        PlayerSpawnStore store = plugin.getPlayerSpawnStore();
+        for (int i = 0; i < playerCount; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            Set<String> permissions = new HashSet<>();
+            for (int g = 0; g < GROUPS_PER_PLAYER && groupCount > 0; g++) {
+                permissions.add("playerspawn.group.group" + random.nextInt(groupCount));
+            }
+            World world = worlds.get(random.nextInt(worlds.size()));
+            players[i] = Stubs.player(uuid, world, permissions, true);
+            
+            if (random.nextDouble() < PERSONAL_SPAWN_SHARE) {
+                store.set(uuid, SpawnTable.empty().with(world.getName(),
+                        new SpawnPoint(world.getName(), random.nextInt(1000), 64, random.nextInt(1000), 0, 0)));
+            }
+        }
+        return new PluginFixture(dataFolder, plugin, worlds, players);
+    }
+    
+    /**
+     * Write a config with default and respawn spawns for every world and server and world spawns per group
+     */
+    static void writeConfig(File file, int groupCount, List<World> worlds) throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        setSpawn(config, "default.server", "world", 0);
+        setSpawn(config, "new_player", "world", 16);
+        config.set("new_player.enabled", true);
+        config.set("respawn.enabled", true);
+        for (int w = 0; w < worlds.size(); w++) {
+            String worldName = worlds.get(w).getName();
+            setSpawn(config, "default.worlds." + worldName, worldName, w);
+            setSpawn(config, "respawn.worlds." + worldName, worldName, w + 1);
+        }
+        for (int g = 0; g < groupCount; g++) {
+            String path = "groups.group" + g;
+            config.set(path + ".priority", g % 5);
+            setSpawn(config, path + ".server", "world", g);
+            // Every group covers a few worlds
+            for (int w = g % worlds.size(); w < worlds.size(); w += 4) {
+                String worldName = worlds.get(w).getName();
+                setSpawn(config, path + ".worlds." + worldName, worldName, g + w);
+            }
+        }
+        config.save(file);
+    }
+    
+    private static void setSpawn(YamlConfiguration config, String path, String world, int offset) {
+        config.set(path + ".enabled", true);
+        config.set(path + ".location.world", world);
+        config.set(path + ".location.x", offset * 16.5);
+        config.set(path + ".location.y", 64.0);
+        config.set(path + ".location.z", -offset * 16.5);
+        config.set(path + ".location.yaw", 0.0);
+        config.set(path + ".location.pitch", 0.0);
+    }
+    
+    /**
+     * Install the stub server, replacing the worlds of an earlier fixture
+     */
+    private static synchronized void installServer(List<World> worlds) throws ReflectiveOperationException {
+        server = Stubs.server(worlds);
+        // Bukkit.setServer refuses to replace the server and prints build info, set the field directly
+        Field field = Bukkit.class.getDeclaredField("server");
+        field.setAccessible(true);
+        field.set(null, server);
+    }
+    
+    /**
+     * Create the plugin without a plugin class loader and wire the parts the spawn paths use
+     */
+    private static PlayerSpawn bootstrap(File dataFolder) throws Exception {
+        Field unsafeField = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+        unsafeField.setAccessible(true);
+        sun.misc.Unsafe unsafe = (sun.misc.Unsafe) unsafeField.get(null);
+        // JavaPlugin refuses construction outside a plugin class loader, so skip the constructor
+        PlayerSpawn plugin = (PlayerSpawn) unsafe.allocateInstance(PlayerSpawn.class);
+        
+        Logger logger = Logger.getLogger("PlayerSpawn");
+        setIfPresent(plugin, JavaPlugin.class, "server", server);
+        setIfPresent(plugin, JavaPlugin.class, "dataFolder", dataFolder);
+        setIfPresent(plugin, JavaPlugin.class, "classLoader", PlayerSpawn.class.getClassLoader());
+        setIfPresent(plugin, JavaPlugin.class, "logger", logger);
+        
+        // Field initializers did not run either
+        for (Field field : PlayerSpawn.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.setAccessible(true);
+            if (field.get(plugin) == null) {
+                try {
+                    field.set(plugin, field.getType().getConstructor().newInstance());
+                } catch (NoSuchMethodException e) {
+                    // Wired below, or checked once everything is wired
+                }
+            }
+        }
+        set(null, "instance", plugin);
+        
+        ConfigManager configManager = new ConfigManager(plugin);
+        set(plugin, "configManager", configManager);
+        set(plugin, "spawnRegistry", new SpawnRegistry(plugin));
+        set(plugin, "spawnBalancer", new SpawnBalancer(plugin));
+        configManager.loadConfigs();
+        
+        set(plugin, "playerSpawnStore", new FilePlayerSpawnStore(new File(dataFolder, "players"), logger));
+        set(plugin, "logoutLocationStore",
+                new FileLogoutLocationStore(new File(dataFolder, "logout-locations.dat"), logger));
+        checkWired(plugin);
+        return plugin;
+    }
+    
+    /**
+     * Fail when a plugin field the benchmarked paths may use is still unset,
+     * instead of letting every benchmark method run into it
+     */
+    private static void checkWired(PlayerSpawn plugin) throws IllegalAccessException {
+        List<String> missing = new ArrayList<>();
+        for (Field field : PlayerSpawn.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || UNUSED_FIELDS.contains(field.getName())) {
+                continue;
+            }
+            field.setAccessible(true);
+            if (field.get(plugin) == null) {
+                missing.add(field.getName());
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Fixture does not wire plugin fields " + missing);
+        }
+    }
+    
+    private static void set(PlayerSpawn target, String name, Object value) throws ReflectiveOperationException {
+        Field field = PlayerSpawn.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+    
+    private static void setIfPresent(Object target, Class<?> owner, String name, Object value)
+            throws IllegalAccessException {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (NoSuchFieldException e) {
+            // Field layout differs between API versions, the rest of the plugin does not need it
+        }
+    }
+    
+    /**
+     * Stop background writers and delete the generated files
+     */
+    public void close() throws IOException {
+        plugin.getPlayerSpawnStore().close();
+        plugin.getConfigManager().shutdown();
+        try (Stream<Path> paths = Files.walk(dataFolder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+    
+    public PlayerSpawn getPlugin() {
+        return plugin;
+    }
+    
+    public File getDataFolder() {
+        return dataFolder;
+    }
+    
+    public List<World> getWorlds() {
+        return Collections.unmodifiableList(worlds);
+    }
+    
+    public Player[] getPlayers() {
+        return players;
+    }
+}
\ No newline at end of file
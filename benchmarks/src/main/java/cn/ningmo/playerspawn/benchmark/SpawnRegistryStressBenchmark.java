@@ -0,0 +1,151 @@
+package cn.ningmo.playerspawn.benchmark;
+
+import cn.ningmo.playerspawn.config.SpawnIndex;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.spawn.SpawnRegistry;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many threads reading spawns while others write player and config spawns, as with async callers next to commands.
+ * Every writer owns one world slot of each player's table; after the run each slot must hold the writer's last
+ * value, otherwise a concurrent write of another slot overwrote it and the trial fails.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpawnRegistryStressBenchmark {
+    // Few players, so writers keep colliding on the same tables
+    @Param({"64"})
+    public int players;
+    
+    @Param({"10"})
+    public int groups;
+    
+    private PluginFixture fixture;
+    private SpawnRegistry registry;
+    private UUID[] playerIds;
+    private World world;
+    private final AtomicInteger writerIds = new AtomicInteger();
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.create(0, groups, 4);
+        registry = fixture.getPlugin().getSpawnRegistry();
+        world = fixture.getWorlds().get(0);
+        
+        Random random = new Random(42);
+        playerIds = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            playerIds[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+    
+    /**
+     * Walks over the players, one cursor per reader thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+        
+        UUID next(UUID[] playerIds) {
+            next = (next + 1) % playerIds.length;
+            return playerIds[next];
+        }
+    }
+    
+    /**
+     * A writer with its own world slot and the last value it wrote for every player
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        private String worldName;
+        private long[] written;
+        private long counter;
+        private int next;
+        private SpawnRegistryStressBenchmark benchmark;
+        
+        @Setup(Level.Trial)
+        public void setUp(SpawnRegistryStressBenchmark benchmark) {
+            this.benchmark = benchmark;
+            worldName = "stress_" + benchmark.writerIds.getAndIncrement();
+            written = new long[benchmark.players];
+        }
+        
+        @TearDown(Level.Trial)
+        public void verify() {
+            for (int i = 0; i < written.length; i++) {
+                if (written[i] == 0) {
+                    continue;
+                }
+                SpawnPoint point = benchmark.registry.getPlayerSpawns(benchmark.playerIds[i]).getWorld(worldName);
+                if (point == null || (long) point.getX() != written[i]) {
+                    throw new IllegalStateException("Lost update of " + worldName + " for player " + i
+                            + ": expected x " + written[i] + ", found " + (point != null ? point.getX() : null));
+                }
+            }
+        }
+    }
+    
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public SpawnPoint readPlayerSpawn(Cursor cursor) {
+        return registry.getPlayerSpawn(cursor.next(playerIds), "world");
+    }
+    
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public SpawnPoint readIndex() {
+        SpawnIndex index = registry.getIndex();
+        return index.getDefaults().getServer();
+    }
+    
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void writePlayerSpawn(Writer writer) {
+        int i = writer.next;
+        writer.next = (i + 1) % playerIds.length;
+        long value = ++writer.counter;
+        registry.setPlayerSpawn(playerIds[i], writer.worldName, new SpawnPoint(writer.worldName, value, 64, 0, 0, 0));
+        writer.written[i] = value;
+    }
+    
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void writeConfigSpawn(Writer writer) {
+        long value = ++writer.counter;
+        registry.setConfigSpawn("groups.group" + (value % groups) + ".server", new Location(world, value, 64, 0));
+    }
+}
\ No newline at end of file
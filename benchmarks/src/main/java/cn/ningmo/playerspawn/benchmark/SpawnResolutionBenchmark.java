@@ -0,0 +1,87 @@
+package cn.ningmo.playerspawn.benchmark;
+
+import cn.ningmo.playerspawn.utils.SpawnUtils;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawn lookups for a rotating set of players, as done on join, respawn and by commands.
+ * Run with -prof gc for the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpawnResolutionBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int players;
+    
+    @Param({"10", "100"})
+    public int groups;
+    
+    @Param({"4", "32"})
+    public int worlds;
+    
+    private PluginFixture fixture;
+    private Player[] playerArray;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.create(players, groups, worlds);
+        playerArray = fixture.getPlayers();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+    
+    /**
+     * Walks over all players in a scattered order, one cursor per benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        // Prime stride so consecutive lookups hit unrelated players
+        private static final int STRIDE = 7919;
+        private int next;
+        
+        Player next(Player[] players) {
+            next = (next + STRIDE) % players.length;
+            return players[next];
+        }
+    }
+    
+    @Benchmark
+    public Location getPlayerSpawn(Cursor cursor) {
+        Player player = cursor.next(playerArray);
+        return SpawnUtils.getPlayerSpawn(player, player.getWorld());
+    }
+    
+    @Benchmark
+    public Location getRespawnLocation(Cursor cursor) {
+        Player player = cursor.next(playerArray);
+        return SpawnUtils.getRespawnLocation(player, player.getWorld());
+    }
+    
+    @Benchmark
+    public Location getNewPlayerSpawn(Cursor cursor) {
+        return SpawnUtils.getNewPlayerSpawn(cursor.next(playerArray));
+    }
+}
\ No newline at end of file
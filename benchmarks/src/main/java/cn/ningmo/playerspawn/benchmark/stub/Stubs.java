@@ -0,0 +1,217 @@
+package cn.ningmo.playerspawn.benchmark.stub;
+
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginManager;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Headless stand-ins for the Bukkit objects the plugin touches, built on dynamic proxies.
+ * Methods the plugin does not call return null, zero or false.
+ */
+public final class Stubs {
+    private Stubs() {
+    }
+    
+    /**
+     * A server holding a fixed set of worlds; no plugin is enabled
+     * @param worlds The worlds
+     * @return The server
+     */
+    public static Server server(List<World> worlds) {
+        Map<String, World> byName = new HashMap<>();
+        Map<UUID, World> byUUID = new HashMap<>();
+        for (World world : worlds) {
+            byName.put(world.getName(), world);
+            byUUID.put(world.getUID(), world);
+        }
+        List<World> worldList = Collections.unmodifiableList(new ArrayList<>(worlds));
+        PluginManager pluginManager = proxy(PluginManager.class, (method, args) -> null);
+        Logger logger = Logger.getLogger("StubServer");
+        
+        return proxy(Server.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getWorld":
+                    return args[0] instanceof UUID ? byUUID.get(args[0]) : byName.get(args[0]);
+                case "getWorlds":
+                    return worldList;
+                case "getPluginManager":
+                    return pluginManager;
+                case "getLogger":
+                    return logger;
+                case "isPrimaryThread":
+                    return true;
+                case "getName":
+                    return "StubServer";
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "benchmark";
+                default:
+                    return null;
+            }
+        });
+    }
+    
+    /**
+     * A world with a name and the overworld height range
+     * @param name The world name
+     * @return The world
+     */
+    public static World world(String name) {
+        UUID uuid = UUID.nameUUIDFromBytes(("world:" + name).getBytes());
+        return proxy(World.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getUID":
+                    return uuid;
+                case "getMinHeight":
+                    return -64;
+                case "getMaxHeight":
+                    return 320;
+                default:
+                    return null;
+            }
+        });
+    }
+    
+    /**
+     * An online player standing in a world
+     * @param uuid The player's UUID
+     * @param world The world the player is in
+     * @param permissions The permissions the player has
+     * @param playedBefore Whether the player joined before
+     * @return The player
+     */
+    public static Player player(UUID uuid, World world, Set<String> permissions, boolean playedBefore) {
+        String name = "player" + Long.toHexString(uuid.getLeastSignificantBits() & 0xFFFFFFL);
+        return proxy(Player.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                    return name;
+                case "getWorld":
+                    return world;
+                case "getLocation":
+                    return new Location(world, 0, 64, 0);
+                case "hasPermission":
+                    return args[0] instanceof String && permissions.contains(args[0]);
+                case "isOnline":
+                    return true;
+                case "hasPlayedBefore":
+                    return playedBefore;
+                default:
+                    return null;
+            }
+        });
+    }
+    
+    /**
+     * A command sender that keeps the last message it received, as a string or an Adventure component
+     * @return The command sender
+     */
+    public static RecordingSender sender() {
+        RecordingSender recorder = new RecordingSender();
+        recorder.sender = proxy(CommandSender.class, (method, args) -> {
+            if (method.getName().equals("sendMessage") && args != null && args.length == 1) {
+                recorder.last = args[0];
+            }
+            return null;
+        });
+        return recorder;
+    }
+    
+    /**
+     * A command sender and the last message sent to it
+     */
+    public static final class RecordingSender {
+        private CommandSender sender;
+        private Object last;
+        
+        public CommandSender getSender() {
+            return sender;
+        }
+        
+        public Object getLast() {
+            return last;
+        }
+    }
+    
+    /**
+     * Handles a proxied call that is not one of the Object methods
+     */
+    private interface Handler {
+        Object handle(Method method, Object[] args);
+    }
+    
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return type.getSimpleName() + "Stub";
+                    }
+                    break;
+                default:
+                    break;
+            }
+            
+            Object result = handler.handle(method, args);
+            return result != null ? result : defaultValue(method.getReturnType());
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, invocationHandler));
+    }
+    
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == double.class) {
+            return 0d;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+package cn.ningmo.playerspawn.config;
+
+import cn.ningmo.playerspawn.benchmark.PluginFixture;
+import cn.ningmo.playerspawn.metrics.Metrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Loading and saving config.yml for growing numbers of groups and worlds.
+ * Lives in the config package to drive the package-private background writer directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigBenchmark {
+    @Param({"10", "100"})
+    public int groups;
+    
+    @Param({"4", "32"})
+    public int worlds;
+    
+    private PluginFixture fixture;
+    private ConfigManager configManager;
+    private ConfigWriter writer;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = PluginFixture.create(0, groups, worlds);
+        configManager = fixture.getPlugin().getConfigManager();
+        writer = new ConfigWriter(new File(fixture.getDataFolder(), "config-copy.yml"), new Object(),
+                configManager::getConfig, Logger.getLogger("ConfigBenchmark"), new Metrics(), data -> { });
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        writer.close();
+        fixture.close();
+    }
+    
+    /**
+     * Parse config.yml and compile the spawn index, as on startup and /ps reload
+     */
+    @Benchmark
+    public SpawnIndex loadConfig() {
+        configManager.loadConfig();
+        return configManager.getSpawnIndex();
+    }
+    
+    /**
+     * Compile every spawn table from scratch
+     */
+    @Benchmark
+    public SpawnIndex compileSpawnIndex() {
+        return SpawnIndex.compile(configManager.getConfig());
+    }
+    
+    /**
+     * Compile against the previous index when nothing changed, as on a reload after a no-op edit
+     */
+    @Benchmark
+    public SpawnIndex compileSpawnIndexUnchanged() {
+        return SpawnIndex.compile(configManager.getConfig(), configManager.getSpawnIndex());
+    }
+    
+    /**
+     * The cost a command pays to save, the write itself happens in the background
+     */
+    @Benchmark
+    public void saveConfig() {
+        configManager.saveConfig();
+    }
+    
+    /**
+     * The background write: serialize the config and replace the file
+     */
+    @Benchmark
+    public void writeConfig() {
+        writer.markDirty();
+        writer.flush();
+    }
+}
\ No newline at end of file
@@ -3,32 +3,160 @@ package cn.ningmo.playerspawn;
 import org.bukkit.plugin.java.JavaPlugin;
 import cn.ningmo.playerspawn.commands.PlayerSpawnCommand;
 import cn.ningmo.playerspawn.config.ConfigManager;
+import cn.ningmo.playerspawn.config.ConfigSnapshot;
 import cn.ningmo.playerspawn.listeners.PlayerListener;
+import cn.ningmo.playerspawn.listeners.SpawnLocationListener;
+import cn.ningmo.playerspawn.metrics.Metrics;
+import cn.ningmo.playerspawn.metrics.MetricsExporter;
+import cn.ningmo.playerspawn.metrics.PrometheusFileExporter;
+import cn.ningmo.playerspawn.session.PlayerSessionManager;
+import cn.ningmo.playerspawn.spawn.GroupResolver;
+import cn.ningmo.playerspawn.spawn.SafeSpawnFinder;
+import cn.ningmo.playerspawn.spawn.SpawnBalancer;
+import cn.ningmo.playerspawn.spawn.SpawnChunkManager;
+import cn.ningmo.playerspawn.spawn.SpawnRegistry;
+import cn.ningmo.playerspawn.spawn.TeleportQueue;
+import cn.ningmo.playerspawn.storage.FilePlayerSpawnStore;
+import cn.ningmo.playerspawn.storage.FileLogoutLocationStore;
+import cn.ningmo.playerspawn.storage.LogoutLocationStore;
+import cn.ningmo.playerspawn.storage.PlayerSpawnStore;
+import cn.ningmo.playerspawn.storage.SqlDialect;
+import cn.ningmo.playerspawn.storage.SqlLogoutLocationStore;
+import cn.ningmo.playerspawn.storage.SqlPlayerSpawnStore;
+import cn.ningmo.playerspawn.utils.SchedulerUtils;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 public class PlayerSpawn extends JavaPlugin {
     private static PlayerSpawn instance;
     private ConfigManager configManager;
+    private PlayerSpawnStore playerSpawnStore;
+    private LogoutLocationStore logoutLocationStore;
+    // The connection pool of the SQL stores, null for file storage
+    private HikariDataSource dataSource;
+    private final SpawnRegistry spawnRegistry = new SpawnRegistry(this);
+    private final GroupResolver groupResolver = new GroupResolver();
+    private SpawnChunkManager spawnChunkManager;
+    private TeleportQueue teleportQueue;
+    private PlayerListener playerListener;
+    private final SpawnBalancer spawnBalancer = new SpawnBalancer(this);
+    private final SafeSpawnFinder safeSpawnFinder = new SafeSpawnFinder();
+    private final Metrics metrics = new Metrics();
+    private final PlayerSessionManager sessionManager = new PlayerSessionManager();
+    private MetricsExporter configuredExporter;
+    private SchedulerUtils.Task exportTask;
+    // The reload in progress, only touched on the global thread
+    private CompletableFuture<ConfigSnapshot> pendingReload;
     
     @Override
     public void onEnable() {
         // Set instance
         instance = this;
         
+        // Floodgate is a soft dependency, so it is enabled before us if installed
+        sessionManager.setFloodgateEnabled(getServer().getPluginManager().isPluginEnabled("floodgate"));
+        
         // Initialize config manager
         configManager = new ConfigManager(this);
         configManager.loadConfigs();
         
+        // Initialize player spawn storage and move old players.* entries into it
+        playerSpawnStore = createPlayerSpawnStore();
+        int migrated = configManager.migratePlayerSpawns(playerSpawnStore);
+        if (migrated > 0) {
+            getLogger().info("Migrated " + migrated + " player spawns from config.yml to the player spawn store");
+        }
+        
+        // Load logout locations and persist changes in batches off the main thread
+        logoutLocationStore = createLogoutLocationStore();
+        logoutLocationStore.load();
+        
+        // Logins staged at pre-login but denied later release what was preloaded for them
+        sessionManager.setLogoutLocationStore(logoutLocationStore);
+        sessionManager.setOnStageExpired(playerUUID -> {
+            playerSpawnStore.unload(playerUUID);
+            logoutLocationStore.unload(playerUUID);
+        });
+        
+        // Open sessions for players online before the plugin was enabled
+        sessionManager.openAll(getServer().getOnlinePlayers());
+        
+        // Keep spawn chunks loaded, following every change of the spawn index
+        spawnChunkManager = new SpawnChunkManager(this);
+        // Spawns may be written from any thread, the tickets are managed on the global thread
+        configManager.addSpawnIndexListener(index -> SchedulerUtils.runGlobal(this,
+                () -> spawnChunkManager.update(configManager.getSpawnIndex())));
+        
+        // Spread players over multi-point spawns; a rebuild keeps the spreads of unchanged sections and their counts
+        configManager.addSpawnIndexListener(spawnBalancer::retain);
+        configManager.addSpawnIndexListener(index -> safeSpawnFinder.invalidateAll());
+        
+        // Spread join teleports over ticks
+        teleportQueue = new TeleportQueue(this);
+        playerListener = new PlayerListener(this);
+        SchedulerUtils.runGlobalTimer(this, teleportQueue::tick, 1L, 1L);
+        
+        registerGauges();
+        applySettings();
+        long checkInterval = Math.max(1, configManager.getConfig().getLong("spawn_spread.check_interval", 20));
+        SchedulerUtils.runGlobalTimer(this, spawnBalancer::check, checkInterval, checkInterval);
+        long saveInterval = Math.max(1, configManager.getConfig().getLong("on_rejoin.save_interval", 60)) * 20L;
+        SchedulerUtils.runAsyncTimer(this, logoutLocationStore::saveIfDirty, saveInterval, saveInterval);
+        SchedulerUtils.runGlobalTimer(this, playerListener::captureLocations, saveInterval, saveInterval);
+        
         // Register commands
         getCommand("ps").setExecutor(new PlayerSpawnCommand(this));
         
         // Register listeners
-        getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
+        getServer().getPluginManager().registerEvents(sessionManager, this);
+        getServer().getPluginManager().registerEvents(playerListener, this);
+        getServer().getPluginManager().registerEvents(spawnChunkManager, this);
+        getServer().getPluginManager().registerEvents(spawnBalancer, this);
+        getServer().getPluginManager().registerEvents(safeSpawnFinder, this);
+        // Joining players are created at their spawn where the server lets us choose, instead of teleported
+        if (SpawnLocationListener.isSupported()) {
+            getServer().getPluginManager().registerEvents(new SpawnLocationListener(this, playerListener), this);
+        }
         
         getLogger().info("PlayerSpawn plugin has been enabled!");
     }
     
     @Override
     public void onDisable() {
+        if (spawnChunkManager != null) {
+            spawnChunkManager.releaseAll();
+        }
+        
+        if (playerSpawnStore != null) {
+            playerSpawnStore.close();
+        }
+        
+        if (logoutLocationStore != null) {
+            // Players still online never fire the quit event before the plugin is disabled
+            if (playerListener != null) {
+                playerListener.saveOnlineLogoutLocations();
+            }
+            logoutLocationStore.saveIfDirty();
+        }
+        
+        if (dataSource != null) {
+            dataSource.close();
+        }
+        
+        // Final synchronous write of pending config changes
+        if (configManager != null) {
+            configManager.shutdown();
+        }
+        
         getLogger().info("PlayerSpawn plugin has been disabled!");
     }
     
@@ -40,6 +168,264 @@ public class PlayerSpawn extends JavaPlugin {
         return instance;
     }
     
+    /**
+     * Reload the configuration files in the background and apply them on the global thread.
+     * Files with errors are not applied and the configuration in use stays as it is.
+     * Must be called on the global thread, the main thread outside Folia.
+     * @return The parsed snapshot, completed on the global thread once it was applied or rejected
+     */
+    public CompletableFuture<ConfigSnapshot> reload() {
+        // Callers asking while a reload runs share its result
+        if (pendingReload == null) {
+            pendingReload = new CompletableFuture<>();
+            startReload(pendingReload);
+        }
+        return pendingReload;
+    }
+    
+    private void startReload(CompletableFuture<ConfigSnapshot> result) {
+        SchedulerUtils.runAsync(this, () -> {
+            ConfigSnapshot snapshot;
+            try {
+                snapshot = configManager.parse();
+            } catch (RuntimeException e) {
+                SchedulerUtils.runGlobal(this, () -> finishReload(result, null, e));
+                return;
+            }
+            SchedulerUtils.runGlobal(this, () -> {
+                if (snapshot.hasErrors()) {
+                    finishReload(result, snapshot, null);
+                    return;
+                }
+                
+                long start = metrics.start();
+                if (!configManager.publish(snapshot)) {
+                    // The config was edited while parsing, parse again so the edit is kept
+                    startReload(result);
+                    return;
+                }
+                groupResolver.invalidateAll();
+                applySettings();
+                metrics.stop(metrics.getReload(), start);
+                finishReload(result, snapshot, null);
+            });
+        });
+    }
+    
+    /**
+     * Reload after config.yml or messages.yml was changed on disk
+     */
+    private void reloadChangedFiles() {
+        reload().thenAccept(snapshot -> {
+            if (!snapshot.hasErrors()) {
+                getLogger().info(String.format("Reloaded the configuration in %.1f ms, %d spawn tables recompiled",
+                        snapshot.getParseNanos() / 1_000_000.0, configManager.getSpawnIndex().getRecompiledCount()));
+            }
+        });
+    }
+    
+    private void finishReload(CompletableFuture<ConfigSnapshot> result, ConfigSnapshot snapshot, Throwable error) {
+        pendingReload = null;
+        if (error != null) {
+            getLogger().log(Level.SEVERE, "Could not reload the configuration", error);
+            result.completeExceptionally(error);
+            return;
+        }
+        
+        for (String message : snapshot.getErrors()) {
+            getLogger().warning("Reload rejected: " + message);
+        }
+        result.complete(snapshot);
+    }
+    
+    /**
+     * Apply settings that are read once instead of on every event
+     */
+    private void applySettings() {
+        logoutLocationStore.configure(
+                configManager.getConfig().getInt("on_rejoin.max_saved_locations", 10000),
+                TimeUnit.DAYS.toMillis(configManager.getConfig().getLong("on_rejoin.expire_days", 30)));
+        groupResolver.setRefreshInterval(
+                TimeUnit.SECONDS.toMillis(configManager.getConfig().getLong("group_cache.refresh_interval", 60)));
+        spawnChunkManager.configure(
+                configManager.getConfig().getBoolean("spawn_chunks.enabled", false),
+                configManager.getConfig().getInt("spawn_chunks.radius", 1));
+        spawnChunkManager.update(configManager.getSpawnIndex());
+        safeSpawnFinder.configure(
+                configManager.getConfig().getBoolean("safe_spawn.enabled", false),
+                configManager.getConfig().getInt("safe_spawn.radius", 8),
+                configManager.getConfig().getInt("safe_spawn.vertical", 16));
+        spawnBalancer.setRadius(configManager.getConfig().getDouble("spawn_spread.radius", 16));
+        playerListener.configure(configManager.getConfig());
+        applyMetricsSettings();
+        configManager.configureWatcher(
+                configManager.getConfig().getBoolean("hot_reload.enabled", false),
+                configManager.getConfig().getLong("hot_reload.debounce", 500),
+                () -> SchedulerUtils.runGlobal(this, this::reloadChangedFiles));
+        teleportQueue.configure(
+                configManager.getConfig().getLong("join_teleport.delay", 5),
+                configManager.getConfig().getString("join_teleport.mode", "async").equalsIgnoreCase("async"),
+                configManager.getConfig().getInt("join_teleport.preload_radius", 1),
+                configManager.getConfig().getInt("join_teleport.per_tick", 5));
+    }
+    
+    /**
+     * Register the values shown by /ps stats and exported next to the timers
+     */
+    private void registerGauges() {
+        metrics.registerGauge("teleport_queue_depth", () -> teleportQueue.getDepth());
+        metrics.registerGauge("teleport_queue_dropped_total", () -> teleportQueue.getDropped());
+        metrics.registerGauge("teleport_queue_wait_average_seconds", () -> teleportQueue.getAverageWaitMillis() / 1000);
+        metrics.registerGauge("teleport_queue_wait_max_seconds", () -> teleportQueue.getMaxWaitMillis() / 1000);
+        metrics.registerGauge("logout_locations", () -> logoutLocationStore.size());
+        metrics.registerGauge("staged_logins", () -> sessionManager.getStagedCount());
+        metrics.registerGauge("safe_spawn_cache_size", () -> safeSpawnFinder.getCacheSize());
+        metrics.registerGauge("spread_tracked_players", () -> spawnBalancer.getTrackedCount());
+    }
+    
+    /**
+     * Apply the metrics settings and (re)start the exporter
+     */
+    private void applyMetricsSettings() {
+        metrics.setEnabled(configManager.getConfig().getBoolean("metrics.enabled", false));
+        
+        if (exportTask != null) {
+            exportTask.cancel();
+            exportTask = null;
+        }
+        if (configuredExporter != null) {
+            metrics.removeExporter(configuredExporter);
+            configuredExporter = null;
+        }
+        
+        String type = configManager.getConfig().getString("metrics.export.type", "none");
+        if (type.equalsIgnoreCase("prometheus")) {
+            configuredExporter = new PrometheusFileExporter(new File(getDataFolder(),
+                    configManager.getConfig().getString("metrics.export.file", "metrics.prom")));
+            metrics.addExporter(configuredExporter);
+        } else if (!type.equalsIgnoreCase("none")) {
+            getLogger().warning("Unknown metrics export type '" + type + "', metrics are not exported");
+        }
+        
+        // Exporters added by other plugins run on the same schedule
+        if (metrics.isEnabled() && metrics.hasExporters()) {
+            long interval = Math.max(1, configManager.getConfig().getLong("metrics.export.interval", 60)) * 20L;
+            exportTask = SchedulerUtils.runAsyncTimer(this, () -> metrics.export(getLogger()), interval, interval);
+        }
+    }
+    
+    /**
+     * Create the player spawn store selected by storage.type
+     * @return The player spawn store
+     */
+    private PlayerSpawnStore createPlayerSpawnStore() {
+        String type = configManager.getConfig().getString("storage.type", "file");
+        PlayerSpawnStore store = null;
+        if (type.equalsIgnoreCase("sqlite")) {
+            store = createSqliteStore(configManager.getConfig().getConfigurationSection("storage.sqlite"));
+        } else if (type.equalsIgnoreCase("sql")) {
+            store = createSqlStore(configManager.getConfig().getConfigurationSection("storage.sql"));
+        } else if (!type.equalsIgnoreCase("file")) {
+            getLogger().warning("Unknown storage type '" + type + "', falling back to file storage");
+        }
+        
+        if (store != null) {
+            return store;
+        }
+        if (!type.equalsIgnoreCase("file")) {
+            getLogger().warning("Falling back to file storage");
+        }
+        return new FilePlayerSpawnStore(new File(getDataFolder(), "players"), getLogger());
+    }
+    
+    /**
+     * Create the logout location store, in the embedded database when player spawns are stored there.
+     * Logout locations refer to this server's worlds, so they are not kept in a database shared by a network.
+     * @return The logout location store
+     */
+    private LogoutLocationStore createLogoutLocationStore() {
+        String type = configManager.getConfig().getString("storage.type", "file");
+        if (dataSource != null && type.equalsIgnoreCase("sqlite")) {
+            return new SqlLogoutLocationStore(dataSource, SqlDialect.SQLITE, "", getLogger());
+        }
+        return new FileLogoutLocationStore(new File(getDataFolder(), "logout-locations.dat"), getLogger());
+    }
+    
+    /**
+     * Open the embedded SQLite database in the plugin folder
+     * @param config The storage.sqlite section
+     * @return The store, or null if the database could not be opened
+     */
+    private PlayerSpawnStore createSqliteStore(ConfigurationSection config) {
+        File file = new File(getDataFolder(), config != null ? config.getString("file", "spawns.db") : "spawns.db");
+        HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName("PlayerSpawn-SQLite");
+        hikari.setJdbcUrl("jdbc:sqlite:" + file.getAbsolutePath());
+        // Readers do not wait for the writer, and writers wait for each other instead of failing
+        hikari.addDataSourceProperty("journal_mode", "WAL");
+        hikari.addDataSourceProperty("busy_timeout", "5000");
+        hikari.setMaximumPoolSize(2);
+        
+        // Nothing else writes to the file, so cached records never expire and no changes are polled
+        long flushInterval = config != null ? config.getLong("flush_interval", 1000) : 1000;
+        return openSqlStore(hikari, SqlDialect.SQLITE, "", 0, flushInterval, 0);
+    }
+    
+    /**
+     * Connect to the database shared by the servers of a network
+     * @param config The storage.sql section
+     * @return The store, or null if the database is not supported or could not be reached
+     */
+    private PlayerSpawnStore createSqlStore(ConfigurationSection config) {
+        String url = config != null ? config.getString("url", "") : "";
+        SqlDialect dialect = SqlDialect.of(url);
+        if (dialect == null) {
+            getLogger().severe("Unsupported storage.sql.url '" + url + "', expected a MySQL, MariaDB or H2 JDBC URL");
+            return null;
+        }
+        
+        HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName("PlayerSpawn-SQL");
+        hikari.setJdbcUrl(url);
+        hikari.setUsername(config.getString("username", ""));
+        hikari.setPassword(config.getString("password", ""));
+        hikari.setMaximumPoolSize(Math.max(2, config.getInt("pool_size", 4)));
+        // MySQL Connector/J reads whole result sets into memory unless fetch sizes use a server-side cursor,
+        // which /ps export needs to stream every record
+        if (url.toLowerCase(Locale.ROOT).startsWith("jdbc:mysql:")) {
+            hikari.addDataSourceProperty("useCursorFetch", "true");
+        }
+        
+        return openSqlStore(hikari, dialect, config.getString("table_prefix", "playerspawn_"),
+                TimeUnit.SECONDS.toMillis(config.getLong("cache_ttl", 300)), config.getLong("flush_interval", 1000),
+                config.getLong("poll_interval", 2000));
+    }
+    
+    /**
+     * Open a connection pool and a player spawn store on it
+     * @return The store, or null if the database could not be reached
+     */
+    private PlayerSpawnStore openSqlStore(HikariConfig hikari, SqlDialect dialect, String tablePrefix,
+                                          long cacheTtlMillis, long flushIntervalMillis, long pollIntervalMillis) {
+        try {
+            dataSource = new HikariDataSource(hikari);
+            SqlPlayerSpawnStore store = new SqlPlayerSpawnStore(dataSource, dialect, tablePrefix, cacheTtlMillis,
+                    flushIntervalMillis, getLogger());
+            store.open(pollIntervalMillis);
+            
+            // Spawns set on another server are resolved again on the next lookup
+            store.setChangeListener(sessionManager::invalidate);
+            return store;
+        } catch (SQLException | RuntimeException e) {
+            getLogger().log(Level.SEVERE, "Could not connect to the player spawn database", e);
+            if (dataSource != null) {
+                dataSource.close();
+                dataSource = null;
+            }
+            return null;
+        }
+    }
+    
     /**
      * Get the config manager
      * @return The config manager
@@ -47,4 +433,76 @@ public class PlayerSpawn extends JavaPlugin {
     public ConfigManager getConfigManager() {
         return configManager;
     }
+    
+    /**
+     * Get the player spawn store
+     * @return The player spawn store
+     */
+    public PlayerSpawnStore getPlayerSpawnStore() {
+        return playerSpawnStore;
+    }
+    
+    /**
+     * Get the logout location store
+     * @return The logout location store
+     */
+    public LogoutLocationStore getLogoutLocationStore() {
+        return logoutLocationStore;
+    }
+    
+    /**
+     * Get the spawn registry, for reading and writing spawns from any thread
+     * @return The spawn registry
+     */
+    public SpawnRegistry getSpawnRegistry() {
+        return spawnRegistry;
+    }
+    
+    /**
+     * Get the group resolver
+     * @return The group resolver
+     */
+    public GroupResolver getGroupResolver() {
+        return groupResolver;
+    }
+    
+    /**
+     * Get the spawn balancer
+     * @return The spawn balancer
+     */
+    public SpawnBalancer getSpawnBalancer() {
+        return spawnBalancer;
+    }
+    
+    /**
+     * Get the safe spawn finder
+     * @return The safe spawn finder
+     */
+    public SafeSpawnFinder getSafeSpawnFinder() {
+        return safeSpawnFinder;
+    }
+    
+    /**
+     * Get the player session registry
+     * @return The session manager
+     */
+    public PlayerSessionManager getSessionManager() {
+        return sessionManager;
+    }
+    
+    /**
+     * Get the metrics
+     * @return The metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Get the join teleport queue
+     * @return The teleport queue
+     */
+    public TeleportQueue getTeleportQueue() {
+        return teleportQueue;
+    }
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package cn.ningmo.playerspawn.commands;
 
+import cn.ningmo.playerspawn.metrics.LatencyHistogram;
+import cn.ningmo.playerspawn.metrics.Metrics;
+import cn.ningmo.playerspawn.storage.SpawnTransfer;
 import cn.ningmo.playerspawn.utils.SpawnUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -8,15 +11,22 @@ import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.ConfigurationSection;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import cn.ningmo.playerspawn.PlayerSpawn;
 import cn.ningmo.playerspawn.utils.MessageUtils;
+import cn.ningmo.playerspawn.utils.SchedulerUtils;
 
 public class PlayerSpawnCommand implements CommandExecutor {
     private final PlayerSpawn plugin;
+    // Only one import or export at a time
+    private final AtomicBoolean transferRunning = new AtomicBoolean();
     
     public PlayerSpawnCommand(PlayerSpawn plugin) {
         this.plugin = plugin;
@@ -24,30 +34,56 @@ public class PlayerSpawnCommand implements CommandExecutor {
     
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // A player's location may only be read on the thread owning the player, their region thread on Folia
+        if (sender instanceof Player && !SchedulerUtils.isOwnedByCurrentThread((Player) sender)) {
+            SchedulerUtils.runForEntity(plugin, (Player) sender, () -> onCommand(sender, command, label, args));
+            return true;
+        }
+        
+        // The config belongs to the global thread, the location read here is handed over to it
+        Location here = sender instanceof Player ? ((Player) sender).getLocation() : null;
+        SchedulerUtils.runGlobal(plugin, () -> execute(sender, args, here));
+        return true;
+    }
+    
+    /**
+     * Run a command on the thread owning global state
+     * @param sender The command sender
+     * @param args The command arguments
+     * @param here The sender's location, or null if the sender is not a player
+     */
+    private void execute(CommandSender sender, String[] args, Location here) {
         if (args.length == 0 || args[0].equalsIgnoreCase("help")) {
             sendHelp(sender);
-            return true;
+            return;
         }
         
         switch (args[0].toLowerCase()) {
             case "set":
-                handleSetCommand(sender, args);
+                handleSetCommand(sender, args, here);
                 break;
             case "group":
-                handleGroupCommand(sender, args);
+                handleGroupCommand(sender, args, here);
                 break;
             case "floodgate":
-                handleFloodgateCommand(sender, args);
+                handleFloodgateCommand(sender, args, here);
                 break;
             case "reload":
                 handleReloadCommand(sender);
                 break;
+            case "stats":
+                handleStatsCommand(sender);
+                break;
+            case "import":
+                handleImportCommand(sender, args);
+                break;
+            case "export":
+                handleExportCommand(sender, args);
+                break;
             default:
                 MessageUtils.sendMessage(sender, "commands.invalid-syntax");
                 break;
         }
-        
-        return true;
     }
     
     /**
@@ -65,6 +101,19 @@ public class PlayerSpawnCommand implements CommandExecutor {
         }
         
         MessageUtils.sendMessage(sender, "commands.help.reload");
+        
+        if (sender.hasPermission("playerspawn.stats")) {
+            MessageUtils.sendMessage(sender, "commands.help.stats");
+        }
+        
+        if (sender.hasPermission("playerspawn.import")) {
+            MessageUtils.sendMessage(sender, "commands.help.import");
+        }
+        
+        if (sender.hasPermission("playerspawn.export")) {
+            MessageUtils.sendMessage(sender, "commands.help.export");
+        }
+        
         MessageUtils.sendMessage(sender, "commands.help.help");
         MessageUtils.sendMessage(sender, "commands.help.footer");
     }
@@ -73,8 +122,9 @@ public class PlayerSpawnCommand implements CommandExecutor {
      * Handle the set command
      * @param sender The command sender
      * @param args The command arguments
+     * @param here The sender's location, or null if the sender is not a player
      */
-    private void handleSetCommand(CommandSender sender, String[] args) {
+    private void handleSetCommand(CommandSender sender, String[] args, Location here) {
         if (!sender.hasPermission("playerspawn.set")) {
             MessageUtils.sendMessage(sender, "commands.no-permission");
             return;
@@ -103,7 +153,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                     MessageUtils.sendMessage(sender, "commands.player-only");
                     return;
                 }
-                location = player.getLocation();
+                location = here;
                 argIndex++;
             } else if (args.length > argIndex + 2) {
                 // Parse x, y, z coordinates
@@ -113,7 +163,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                     double z = Double.parseDouble(args[argIndex++]);
                     
                     // Use current world if sender is a player
-                    World world = player != null ? player.getWorld() : null;
+                    World world = here != null ? here.getWorld() : null;
                     location = new Location(world, x, y, z);
                 } catch (NumberFormatException e) {
                     MessageUtils.sendMessage(sender, "commands.invalid-coordinates");
@@ -166,7 +216,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                 MessageUtils.sendMessage(sender, "commands.player-only");
                 return;
             }
-            location = player.getLocation();
+            location = here;
         }
         
         // Set spawn point
@@ -194,8 +244,9 @@ public class PlayerSpawnCommand implements CommandExecutor {
      * Handle the group command
      * @param sender The command sender
      * @param args The command arguments
+     * @param here The sender's location, or null if the sender is not a player
      */
-    private void handleGroupCommand(CommandSender sender, String[] args) {
+    private void handleGroupCommand(CommandSender sender, String[] args, Location here) {
         if (!sender.hasPermission("playerspawn.group")) {
             MessageUtils.sendMessage(sender, "commands.no-permission");
             return;
@@ -239,7 +290,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                     MessageUtils.sendMessage(sender, "commands.player-only");
                     return;
                 }
-                location = player.getLocation();
+                location = here;
                 argIndex++;
             } else if (args.length > argIndex + 2) {
                 // Parse x, y, z coordinates
@@ -249,7 +300,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                     double z = Double.parseDouble(args[argIndex++]);
                     
                     // Use current world if sender is a player
-                    World world = player != null ? player.getWorld() : null;
+                    World world = here != null ? here.getWorld() : null;
                     location = new Location(world, x, y, z);
                 } catch (NumberFormatException e) {
                     MessageUtils.sendMessage(sender, "commands.invalid-coordinates");
@@ -293,7 +344,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                 MessageUtils.sendMessage(sender, "commands.player-only");
                 return;
             }
-            location = player.getLocation();
+            location = here;
         }
         
         // Set group spawn point
@@ -327,16 +378,227 @@ public class PlayerSpawnCommand implements CommandExecutor {
             return;
         }
         
-        plugin.getConfigManager().loadConfigs();
-        MessageUtils.sendMessage(sender, "commands.reload.success");
+        long start = System.nanoTime();
+        MessageUtils.sendMessage(sender, "commands.reload.started");
+        plugin.reload().whenComplete((snapshot, error) -> {
+            if (error != null) {
+                MessageUtils.sendMessage(sender, "commands.reload.failed", "{count}", "1");
+                MessageUtils.sendMessage(sender, "commands.reload.error", "{error}", String.valueOf(error.getMessage()));
+                return;
+            }
+            
+            if (snapshot.hasErrors()) {
+                MessageUtils.sendMessage(sender, "commands.reload.failed",
+                        "{count}", String.valueOf(snapshot.getErrors().size()));
+                for (String message : snapshot.getErrors()) {
+                    MessageUtils.sendMessage(sender, "commands.reload.error", "{error}", message);
+                }
+                return;
+            }
+            
+            MessageUtils.sendMessage(sender, "commands.reload.success",
+                    "{time}", formatMillis(System.nanoTime() - start),
+                    "{parse}", formatMillis(snapshot.getParseNanos()));
+        });
+    }
+    
+    /**
+     * Handle the stats command
+     * @param sender The command sender
+     */
+    private void handleStatsCommand(CommandSender sender) {
+        if (!sender.hasPermission("playerspawn.stats")) {
+            MessageUtils.sendMessage(sender, "commands.no-permission");
+            return;
+        }
+        
+        Metrics metrics = plugin.getMetrics();
+        MessageUtils.sendMessage(sender, "commands.stats.header");
+        if (!metrics.isEnabled()) {
+            MessageUtils.sendMessage(sender, "commands.stats.disabled");
+        }
+        
+        for (LatencyHistogram timer : metrics.getTimers()) {
+            if (timer.getCount() == 0) {
+                continue;
+            }
+            MessageUtils.sendMessage(sender, "commands.stats.timer",
+                    "{name}", timer.getName(),
+                    "{count}", String.valueOf(timer.getCount()),
+                    "{avg}", formatMillis(timer.getMean()),
+                    "{p99}", formatMillis(timer.getPercentile(0.99)),
+                    "{max}", formatMillis(timer.getMax()));
+        }
+        
+        for (Metrics.Gauge gauge : metrics.getGauges()) {
+            MessageUtils.sendMessage(sender, "commands.stats.gauge",
+                    "{name}", gauge.getName(),
+                    "{value}", String.format("%.2f", gauge.getValue()));
+        }
+    }
+    
+    /**
+     * Handle the import command
+     * @param sender The command sender
+     * @param args The command arguments
+     */
+    private void handleImportCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("playerspawn.import")) {
+            MessageUtils.sendMessage(sender, "commands.no-permission");
+            return;
+        }
+        
+        File file = resolveTransferFile(sender, args);
+        if (file == null) {
+            return;
+        }
+        if (!file.isFile()) {
+            MessageUtils.sendMessage(sender, "commands.transfer.file-not-found", "{file}", args[1]);
+            return;
+        }
+        
+        // World names are read here, the import itself runs off the main thread
+        Set<String> worlds = new HashSet<>();
+        for (World world : Bukkit.getWorlds()) {
+            worlds.add(world.getName());
+        }
+        
+        runTransfer(sender, args[1], "commands.import", () -> {
+            SpawnTransfer.Result result = createTransfer()
+                    .importFile(file, worlds, count -> sendLater(sender, "commands.transfer.progress",
+                            "{count}", String.valueOf(count)));
+            return () -> {
+                MessageUtils.sendMessage(sender, "commands.import.success",
+                        "{processed}", String.valueOf(result.getProcessed()),
+                        "{imported}", String.valueOf(result.getImported()),
+                        "{skipped}", String.valueOf(result.getSkipped()));
+                for (String error : result.getErrors()) {
+                    MessageUtils.sendMessage(sender, "commands.transfer.error", "{error}", error);
+                }
+            };
+        });
+    }
+    
+    /**
+     * Handle the export command
+     * @param sender The command sender
+     * @param args The command arguments
+     */
+    private void handleExportCommand(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("playerspawn.export")) {
+            MessageUtils.sendMessage(sender, "commands.no-permission");
+            return;
+        }
+        
+        File file = resolveTransferFile(sender, args);
+        if (file == null) {
+            return;
+        }
+        
+        runTransfer(sender, args[1], "commands.export", () -> {
+            long written = createTransfer()
+                    .exportFile(file, count -> sendLater(sender, "commands.transfer.progress",
+                            "{count}", String.valueOf(count)));
+            return () -> MessageUtils.sendMessage(sender, "commands.export.success",
+                    "{count}", String.valueOf(written), "{file}", args[1]);
+        });
+    }
+    
+    /**
+     * Get the file named by an import or export command, which must be a CSV or JSON lines file in the plugin folder
+     * @param sender The command sender
+     * @param args The command arguments
+     * @return The file, or null if it was rejected
+     */
+    private File resolveTransferFile(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            MessageUtils.sendMessage(sender, "commands.invalid-syntax");
+            return null;
+        }
+        
+        try {
+            File folder = plugin.getDataFolder().getCanonicalFile();
+            File file = new File(folder, args[1]).getCanonicalFile();
+            if (file.toPath().startsWith(folder.toPath()) && SpawnTransfer.Format.of(file) != null) {
+                return file;
+            }
+        } catch (IOException e) {
+            // Rejected below
+        }
+        MessageUtils.sendMessage(sender, "commands.transfer.invalid-file");
+        return null;
+    }
+    
+    /**
+     * Create a transfer that imports through the spawn registry, like the set commands
+     * @return The transfer
+     */
+    private SpawnTransfer createTransfer() {
+        return new SpawnTransfer(plugin.getPlayerSpawnStore(), plugin.getSpawnRegistry());
+    }
+    
+    /**
+     * Run an import or export off the server threads and report the outcome on the global thread
+     * @param sender The command sender
+     * @param fileName The file name as given
+     * @param messagePath The message path of the operation
+     * @param task Runs the transfer and returns the report to send
+     */
+    private void runTransfer(CommandSender sender, String fileName, String messagePath, TransferTask task) {
+        if (!transferRunning.compareAndSet(false, true)) {
+            MessageUtils.sendMessage(sender, "commands.transfer.busy");
+            return;
+        }
+        
+        MessageUtils.sendMessage(sender, messagePath + ".started", "{file}", fileName);
+        long start = System.nanoTime();
+        SchedulerUtils.runAsync(plugin, () -> {
+            Runnable report;
+            try {
+                report = task.run();
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().warning("Spawn " + messagePath.substring(messagePath.lastIndexOf('.') + 1)
+                        + " of " + fileName + " failed: " + e);
+                report = () -> MessageUtils.sendMessage(sender, "commands.transfer.failed",
+                        "{error}", String.valueOf(e.getMessage()));
+            } finally {
+                transferRunning.set(false);
+            }
+            
+            Runnable finalReport = report;
+            SchedulerUtils.runGlobal(plugin, () -> {
+                finalReport.run();
+                MessageUtils.sendMessage(sender, "commands.transfer.time",
+                        "{time}", String.format("%.1f", (System.nanoTime() - start) / 1_000_000_000.0));
+            });
+        });
+    }
+    
+    private void sendLater(CommandSender sender, String path, String... placeholders) {
+        SchedulerUtils.runGlobal(plugin, () -> MessageUtils.sendMessage(sender, path, placeholders));
+    }
+    
+    /**
+     * An import or export, run off the main thread
+     */
+    private interface TransferTask {
+        /**
+         * @return The report to send to the command sender on the main thread
+         */
+        Runnable run() throws IOException;
+    }
+    
+    private static String formatMillis(double nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
     }
     
     /**
      * Handle the floodgate command
      * @param sender The command sender
      * @param args The command arguments
+     * @param here The sender's location, or null if the sender is not a player
      */
-    private void handleFloodgateCommand(CommandSender sender, String[] args) {
+    private void handleFloodgateCommand(CommandSender sender, String[] args, Location here) {
         if (!sender.hasPermission("playerspawn.floodgate")) {
             MessageUtils.sendMessage(sender, "commands.no-permission");
             return;
@@ -384,7 +646,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                     MessageUtils.sendMessage(sender, "commands.player-only");
                     return;
                 }
-                location = player.getLocation();
+                location = here;
                 argIndex++;
             } else if (args.length > argIndex + 2) {
                 // Parse x, y, z coordinates
@@ -394,7 +656,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                     double z = Double.parseDouble(args[argIndex++]);
                     
                     // Use current world if sender is a player
-                    World world = player != null ? player.getWorld() : null;
+                    World world = here != null ? here.getWorld() : null;
                     location = new Location(world, x, y, z);
                 } catch (NumberFormatException e) {
                     MessageUtils.sendMessage(sender, "commands.invalid-coordinates");
@@ -430,7 +692,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
                 MessageUtils.sendMessage(sender, "commands.player-only");
                 return;
             }
-            location = player.getLocation();
+            location = here;
         }
         
         // Set Floodgate spawn point
@@ -485,24 +747,7 @@ public class PlayerSpawnCommand implements CommandExecutor {
      * @param isServerSpawn Whether it's a server spawn or world spawn
      */
     private void setGroupSpawn(String groupName, Location location, String worldName, boolean isServerSpawn) {
-        FileConfiguration config = plugin.getConfigManager().getConfig();
-        String path;
-        
-        if (isServerSpawn) {
-            path = "groups." + groupName + ".server";
-        } else {
-            path = "groups." + groupName + ".worlds." + worldName;
-        }
-        
-        // Save location
-        config.set(path + ".enabled", true);
-        config.set(path + ".location.world", location.getWorld().getName());
-        config.set(path + ".location.x", location.getX());
-        config.set(path + ".location.y", location.getY());
-        config.set(path + ".location.z", location.getZ());
-        config.set(path + ".location.yaw", location.getYaw());
-        config.set(path + ".location.pitch", location.getPitch());
-        
-        plugin.getConfigManager().saveConfig();
+        // Use SpawnUtils to set group spawn
+        SpawnUtils.setGroupSpawn(groupName, location, worldName, isServerSpawn);
     }
 }
\ No newline at end of file
@@ -1,21 +1,58 @@
 package cn.ningmo.playerspawn.config;
 
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import cn.ningmo.playerspawn.PlayerSpawn;
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.storage.PlayerSpawnStore;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
 public class ConfigManager {
     private final PlayerSpawn plugin;
-    private FileConfiguration config;
-    private FileConfiguration messages;
+    private volatile FileConfiguration config;
+    private volatile FileConfiguration messages;
+    // Bundled defaults, parsed once since they never change while the plugin runs
+    private YamlConfiguration defaultConfig;
+    private YamlConfiguration defaultMessages;
     private File configFile;
     private File messagesFile;
+    private volatile SpawnIndex spawnIndex;
+    private volatile MessageTemplates messageTemplates;
+    // Guards every modification of config so the background writer sees consistent snapshots
+    private final Object configLock = new Object();
+    private ConfigWriter configWriter;
+    // Bumped on every edit so a reload parsed before the edit is not published over it
+    private volatile long configVersion;
+    // Serializes compiling and swapping the spawn index, so indexes are published in the order of their edits
+    private final Object spawnIndexLock = new Object();
+    private final List<Consumer<SpawnIndex>> spawnIndexListeners = new CopyOnWriteArrayList<>();
+    // Hash of the content last loaded from or written to each file, by file name
+    private final Map<String, String> contentHashes = new ConcurrentHashMap<>();
+    private ConfigWatcher watcher;
+    private long watcherDebounce;
     
     public ConfigManager(PlayerSpawn plugin) {
         this.plugin = plugin;
@@ -33,24 +70,58 @@ public class ConfigManager {
      * Load the main config file
      */
     public void loadConfig() {
+        prepareConfigFile();
+        
+        // Write pending changes first so they are not lost by the reload
+        configWriter.flush();
+        
+        rememberContent(configFile);
+        synchronized (configLock) {
+            config = YamlConfiguration.loadConfiguration(configFile);
+            
+            // Set default values if they don't exist
+            setConfigDefaults();
+        }
+        
+        configWriter.setDelay(config.getLong("save.delay", 1000));
+        rebuildSpawnIndex();
+    }
+    
+    /**
+     * Load the messages file
+     */
+    public void loadMessages() {
+        prepareMessagesFile();
+        
+        rememberContent(messagesFile);
+        messages = YamlConfiguration.loadConfiguration(messagesFile);
+        
+        // Set default values if they don't exist
+        setMessagesDefaults();
+        
+        // Compile before swapping so senders never see a half-built set of templates
+        messageTemplates = MessageTemplates.compile(messages);
+    }
+    
+    /**
+     * Set up the config file and its writer, copying the bundled file if it is missing
+     */
+    private synchronized void prepareConfigFile() {
         if (configFile == null) {
             configFile = new File(plugin.getDataFolder(), "config.yml");
+            configWriter = new ConfigWriter(configFile, configLock, () -> config, plugin.getLogger(), plugin.getMetrics(),
+                    data -> contentHashes.put(configFile.getName(), hash(data)));
         }
         
         if (!configFile.exists()) {
             plugin.saveResource("config.yml", false);
         }
-        
-        config = YamlConfiguration.loadConfiguration(configFile);
-        
-        // Set default values if they don't exist
-        setConfigDefaults();
     }
     
     /**
-     * Load the messages file
+     * Set up the messages file, copying the bundled file if it is missing
      */
-    public void loadMessages() {
+    private synchronized void prepareMessagesFile() {
         if (messagesFile == null) {
             messagesFile = new File(plugin.getDataFolder(), "messages.yml");
         }
@@ -58,23 +129,15 @@ public class ConfigManager {
         if (!messagesFile.exists()) {
             plugin.saveResource("messages.yml", false);
         }
-        
-        messages = YamlConfiguration.loadConfiguration(messagesFile);
-        
-        // Set default values if they don't exist
-        setMessagesDefaults();
     }
     
     /**
      * Set default values for config.yml
      */
     private void setConfigDefaults() {
-        // Load default config from resources
-        InputStream defaultConfigStream = plugin.getResource("config.yml");
-        if (defaultConfigStream != null) {
-            YamlConfiguration defaultConfig = YamlConfiguration.loadConfiguration(
-                    new InputStreamReader(defaultConfigStream, StandardCharsets.UTF_8));
-            config.setDefaults(defaultConfig);
+        YamlConfiguration defaults = getDefaultConfig();
+        if (defaults != null) {
+            config.setDefaults(defaults);
         }
     }
     
@@ -82,24 +145,297 @@ public class ConfigManager {
      * Set default values for messages.yml
      */
     private void setMessagesDefaults() {
-        // Load default messages from resources
-        InputStream defaultMessagesStream = plugin.getResource("messages.yml");
-        if (defaultMessagesStream != null) {
-            YamlConfiguration defaultMessages = YamlConfiguration.loadConfiguration(
-                    new InputStreamReader(defaultMessagesStream, StandardCharsets.UTF_8));
-            messages.setDefaults(defaultMessages);
+        YamlConfiguration defaults = getDefaultMessages();
+        if (defaults != null) {
+            messages.setDefaults(defaults);
+        }
+    }
+    
+    private synchronized YamlConfiguration getDefaultConfig() {
+        if (defaultConfig == null) {
+            defaultConfig = loadResource("config.yml");
+        }
+        return defaultConfig;
+    }
+    
+    private synchronized YamlConfiguration getDefaultMessages() {
+        if (defaultMessages == null) {
+            defaultMessages = loadResource("messages.yml");
+        }
+        return defaultMessages;
+    }
+    
+    /**
+     * Load a bundled configuration file
+     * @param name The resource name
+     * @return The configuration, or null if the plugin jar does not contain it
+     */
+    private YamlConfiguration loadResource(String name) {
+        InputStream stream = plugin.getResource(name);
+        if (stream == null) {
+            return null;
+        }
+        return YamlConfiguration.loadConfiguration(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Parse, validate and compile both files without touching the configuration in use.
+     * Safe to call off the main thread.
+     * @return The snapshot, to be published on the global thread if it has no errors
+     */
+    public ConfigSnapshot parse() {
+        long start = System.nanoTime();
+        prepareConfigFile();
+        prepareMessagesFile();
+        
+        // Read the version before flushing, an edit after this point makes the snapshot stale
+        long version = configVersion;
+        configWriter.flush();
+        
+        List<String> errors = new ArrayList<>();
+        YamlConfiguration newConfig = parseFile(configFile, getDefaultConfig(), errors);
+        YamlConfiguration newMessages = parseFile(messagesFile, getDefaultMessages(), errors);
+        
+        SpawnIndex index = null;
+        MessageTemplates templates = null;
+        if (errors.isEmpty()) {
+            index = SpawnIndex.compile(newConfig, spawnIndex);
+            templates = MessageTemplates.compile(newMessages);
+        }
+        return new ConfigSnapshot(newConfig, newMessages, index, templates, errors, version, System.nanoTime() - start);
+    }
+    
+    /**
+     * Parse a file and check its values against the bundled defaults
+     * @param file The file
+     * @param defaults The bundled defaults (may be null)
+     * @param errors Receives the problems found
+     * @return The configuration with the defaults set
+     */
+    private YamlConfiguration parseFile(File file, Configuration defaults, List<String> errors) {
+        YamlConfiguration yaml = new YamlConfiguration();
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            // Remembered even if invalid, so rewriting the same broken content does not report it again
+            contentHashes.put(file.getName(), hash(data));
+            yaml.loadFromString(new String(data, StandardCharsets.UTF_8));
+        } catch (IOException | InvalidConfigurationException e) {
+            errors.add(file.getName() + ": " + e.getMessage());
+            return yaml;
+        }
+        
+        if (defaults != null) {
+            yaml.setDefaults(defaults);
+            validate(file.getName(), yaml, defaults, errors);
         }
+        return yaml;
     }
     
     /**
-     * Save the config file
+     * Check that every value the bundled file defines has the same kind of value in the user's file
+     */
+    private static void validate(String fileName, Configuration yaml, Configuration defaults, List<String> errors) {
+        for (String path : defaults.getKeys(true)) {
+            if (!yaml.isSet(path)) {
+                continue;
+            }
+            
+            Object expected = defaults.get(path);
+            Object actual = yaml.get(path);
+            if (expected instanceof ConfigurationSection && !(actual instanceof ConfigurationSection)) {
+                errors.add(fileName + ": '" + path + "' must be a section");
+            } else if (expected instanceof Number && !(actual instanceof Number)) {
+                errors.add(fileName + ": '" + path + "' must be a number, found '" + actual + "'");
+            } else if (expected instanceof Boolean && !(actual instanceof Boolean)) {
+                errors.add(fileName + ": '" + path + "' must be true or false, found '" + actual + "'");
+            }
+        }
+    }
+    
+    /**
+     * Swap in a parsed snapshot. Must run on the global thread, the main thread outside Folia.
+     * @param snapshot The snapshot, without errors
+     * @return False if the config was edited after the snapshot was parsed, in which case nothing changed
+     */
+    public boolean publish(ConfigSnapshot snapshot) {
+        if (snapshot.hasErrors()) {
+            throw new IllegalArgumentException("Cannot publish a configuration with errors");
+        }
+        
+        synchronized (spawnIndexLock) {
+            synchronized (configLock) {
+                if (snapshot.getConfigVersion() != configVersion) {
+                    return false;
+                }
+                config = snapshot.getConfig();
+            }
+            messages = snapshot.getMessages();
+            messageTemplates = snapshot.getMessageTemplates();
+            
+            configWriter.setDelay(config.getLong("save.delay", 1000));
+            publishSpawnIndex(snapshot.getSpawnIndex());
+        }
+        return true;
+    }
+    
+    /**
+     * Move the legacy players.* section of config.yml into the player spawn store
+     * @param store The player spawn store
+     * @return The number of migrated players
+     */
+    public int migratePlayerSpawns(PlayerSpawnStore store) {
+        FileConfiguration config = getConfig();
+        if (!config.isConfigurationSection("players")) {
+            return 0;
+        }
+        
+        Map<UUID, SpawnTable> migrated = new HashMap<>();
+        for (String key : config.getConfigurationSection("players").getKeys(false)) {
+            UUID playerUUID;
+            try {
+                playerUUID = UUID.fromString(key);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Skipping player spawn with invalid UUID: " + key);
+                continue;
+            }
+            
+            SpawnTable spawns = SpawnTable.compile(config, "players." + key);
+            if (!spawns.isEmpty()) {
+                migrated.put(playerUUID, spawns);
+            }
+        }
+        
+        // The legacy section is only dropped once every migrated record is persisted
+        try {
+            store.setAll(migrated).join();
+        } catch (CompletionException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to migrate player spawns, keeping them in config.yml",
+                    e.getCause());
+            return 0;
+        }
+        
+        editConfig(c -> c.set("players", null));
+        return migrated.size();
+    }
+    
+    /**
+     * Modify the config and schedule a save
+     * @param editor The modification, applied while the background writer cannot take a snapshot
+     */
+    public void editConfig(Consumer<FileConfiguration> editor) {
+        synchronized (configLock) {
+            editor.accept(getConfig());
+        }
+        saveConfig();
+        // After the save is scheduled, so a reload that still sees the old version also flushes the edit
+        synchronized (configLock) {
+            configVersion++;
+        }
+    }
+    
+    /**
+     * Modify spawns in the config, then recompile and swap in the spawn index as one step.
+     * Safe to call from any thread; concurrent edits are applied one after the other.
+     * @param editor The modification
+     */
+    public void editSpawns(Consumer<FileConfiguration> editor) {
+        synchronized (spawnIndexLock) {
+            editConfig(editor);
+            rebuildSpawnIndex();
+        }
+    }
+    
+    /**
+     * Save the config file in the background, changes made within save.delay are written together
      */
     public void saveConfig() {
+        if (configWriter != null) {
+            configWriter.markDirty();
+        }
+    }
+    
+    /**
+     * Write unsaved config changes and stop the background writer
+     */
+    public void shutdown() {
+        configureWatcher(false, 0, null);
+        if (configWriter != null) {
+            configWriter.close();
+        }
+    }
+    
+    /**
+     * Start, restart or stop watching config.yml and messages.yml for changes made outside the plugin
+     * @param enabled Whether to watch
+     * @param debounceMillis How long a file must stay unchanged before it counts as changed
+     * @param onChange Called on a background thread when a file's content changed
+     */
+    public synchronized void configureWatcher(boolean enabled, long debounceMillis, Runnable onChange) {
+        if (enabled && watcher != null && watcherDebounce == debounceMillis) {
+            return;
+        }
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        if (!enabled) {
+            return;
+        }
+        
+        prepareConfigFile();
+        prepareMessagesFile();
         try {
-            config.save(configFile);
+            watcher = new ConfigWatcher(plugin.getDataFolder().toPath(), Set.of(configFile.getName(), messagesFile.getName()),
+                    debounceMillis, files -> {
+                        // Skip rewrites with the same content, including the plugin's own saves
+                        List<String> changed = new ArrayList<>();
+                        for (String name : files) {
+                            if (isChanged(new File(plugin.getDataFolder(), name))) {
+                                changed.add(name);
+                            }
+                        }
+                        if (!changed.isEmpty()) {
+                            plugin.getLogger().info("Detected changes in " + String.join(", ", changed) + ", reloading");
+                            onChange.run();
+                        }
+                    }, plugin.getLogger());
+            watcherDebounce = debounceMillis;
         } catch (IOException e) {
-            plugin.getLogger().severe("Could not save config to " + configFile);
-            e.printStackTrace();
+            plugin.getLogger().log(Level.WARNING, "Could not watch the config files, hot reload is disabled", e);
+        }
+    }
+    
+    /**
+     * Check whether a file's content differs from what was last loaded or written
+     * @param file The file
+     * @return True if the file changed
+     */
+    private boolean isChanged(File file) {
+        try {
+            return !hash(Files.readAllBytes(file.toPath())).equals(contentHashes.get(file.getName()));
+        } catch (IOException e) {
+            // Deleted or being replaced, a later event reports the new file
+            return false;
+        }
+    }
+    
+    /**
+     * Remember the current content of a file as loaded
+     * @param file The file
+     */
+    private void rememberContent(File file) {
+        try {
+            contentHashes.put(file.getName(), hash(Files.readAllBytes(file.toPath())));
+        } catch (IOException e) {
+            contentHashes.remove(file.getName());
+        }
+    }
+    
+    private static String hash(byte[] data) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
     
@@ -109,6 +445,7 @@ public class ConfigManager {
     public void saveMessages() {
         try {
             messages.save(messagesFile);
+            rememberContent(messagesFile);
         } catch (IOException e) {
             plugin.getLogger().severe("Could not save messages to " + messagesFile);
             e.printStackTrace();
@@ -126,6 +463,54 @@ public class ConfigManager {
         return config;
     }
     
+    /**
+     * Recompile the spawn index from the current config and swap it in
+     */
+    public void rebuildSpawnIndex() {
+        synchronized (spawnIndexLock) {
+            FileConfiguration current = getConfig();
+            SpawnIndex index;
+            // Compiled while no edit is half applied
+            synchronized (configLock) {
+                index = SpawnIndex.compile(current, spawnIndex);
+            }
+            publishSpawnIndex(index);
+        }
+    }
+    
+    /**
+     * Swap in a compiled spawn index and notify the listeners
+     * @param index The spawn index
+     */
+    private void publishSpawnIndex(SpawnIndex index) {
+        spawnIndex = index;
+        
+        for (Consumer<SpawnIndex> listener : spawnIndexListeners) {
+            listener.accept(index);
+        }
+    }
+    
+    /**
+     * Register a callback run whenever a new spawn index is swapped in
+     * @param listener The callback, receiving the new index
+     */
+    public void addSpawnIndexListener(Consumer<SpawnIndex> listener) {
+        spawnIndexListeners.add(listener);
+    }
+    
+    /**
+     * Get the compiled spawn index
+     * @return The spawn index
+     */
+    public SpawnIndex getSpawnIndex() {
+        SpawnIndex index = spawnIndex;
+        if (index == null) {
+            loadConfig();
+            index = spawnIndex;
+        }
+        return index;
+    }
+    
     /**
      * Get the messages file
      * @return The messages file
@@ -136,4 +521,17 @@ public class ConfigManager {
         }
         return messages;
     }
+    
+    /**
+     * Get the compiled message templates
+     * @return The message templates
+     */
+    public MessageTemplates getMessageTemplates() {
+        MessageTemplates templates = messageTemplates;
+        if (templates == null) {
+            loadMessages();
+            templates = messageTemplates;
+        }
+        return templates;
+    }
 }
\ No newline at end of file
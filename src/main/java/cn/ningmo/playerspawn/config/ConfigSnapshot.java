@@ -0,0 +1,75 @@
+package cn.ningmo.playerspawn.config;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * config.yml and messages.yml parsed and compiled off the main thread, not yet in use.
+ * Published as a whole by {@link ConfigManager#publish(ConfigSnapshot)}, or dropped if it has errors.
+ */
+public final class ConfigSnapshot {
+    private final FileConfiguration config;
+    private final FileConfiguration messages;
+    private final SpawnIndex spawnIndex;
+    private final MessageTemplates messageTemplates;
+    private final List<String> errors;
+    private final long configVersion;
+    private final long parseNanos;
+    
+    ConfigSnapshot(FileConfiguration config, FileConfiguration messages, SpawnIndex spawnIndex,
+                   MessageTemplates messageTemplates, List<String> errors, long configVersion, long parseNanos) {
+        this.config = config;
+        this.messages = messages;
+        this.spawnIndex = spawnIndex;
+        this.messageTemplates = messageTemplates;
+        this.errors = Collections.unmodifiableList(errors);
+        this.configVersion = configVersion;
+        this.parseNanos = parseNanos;
+    }
+    
+    FileConfiguration getConfig() {
+        return config;
+    }
+    
+    FileConfiguration getMessages() {
+        return messages;
+    }
+    
+    SpawnIndex getSpawnIndex() {
+        return spawnIndex;
+    }
+    
+    MessageTemplates getMessageTemplates() {
+        return messageTemplates;
+    }
+    
+    long getConfigVersion() {
+        return configVersion;
+    }
+    
+    /**
+     * Check whether the files could not be used
+     * @return True if there were errors
+     */
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+    
+    /**
+     * Get the problems found while parsing and validating
+     * @return The errors, one line each
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+    
+    /**
+     * Get how long parsing and compiling took
+     * @return The duration in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,135 @@
+package cn.ningmo.playerspawn.config;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches files in a folder and reports them once they stopped changing for a while.
+ * Bursts of events, such as an editor or deploy tool writing a file in several steps, are reported once.
+ */
+class ConfigWatcher {
+    private final Path folder;
+    private final Set<String> fileNames;
+    private final long debounceMillis;
+    private final Consumer<Set<String>> onChange;
+    private final Logger logger;
+    private final WatchService watchService;
+    private final Thread thread;
+    private final ScheduledThreadPoolExecutor executor;
+    // Files changed since the last report, guarded by this
+    private final Set<String> changed = new HashSet<>();
+    private ScheduledFuture<?> pending;
+    
+    /**
+     * Start watching
+     * @param folder The folder holding the files
+     * @param fileNames The names of the files to watch
+     * @param debounceMillis How long a file must stay unchanged before it is reported
+     * @param onChange Receives the names of the changed files, called on a background thread
+     * @param logger The logger for watch failures
+     * @throws IOException If the folder cannot be watched
+     */
+    ConfigWatcher(Path folder, Set<String> fileNames, long debounceMillis, Consumer<Set<String>> onChange,
+                  Logger logger) throws IOException {
+        this.folder = folder;
+        this.fileNames = fileNames;
+        this.debounceMillis = Math.max(0, debounceMillis);
+        this.onChange = onChange;
+        this.logger = logger;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "PlayerSpawn-ConfigWatcher-Debounce");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.thread = new Thread(this::run, "PlayerSpawn-ConfigWatcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, any of the files may have changed
+                        fileNames.forEach(this::onEvent);
+                    } else if (event.context() instanceof Path) {
+                        String name = ((Path) event.context()).getFileName().toString();
+                        if (fileNames.contains(name)) {
+                            onEvent(name);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    logger.warning("Stopped watching " + folder + ", the folder is no longer accessible");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+    
+    /**
+     * Remember a changed file and restart the quiet period
+     */
+    private synchronized void onEvent(String fileName) {
+        changed.add(fileName);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        try {
+            pending = executor.schedule(this::report, debounceMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+    
+    private void report() {
+        Set<String> files;
+        synchronized (this) {
+            files = new HashSet<>(changed);
+            changed.clear();
+            pending = null;
+        }
+        
+        try {
+            onChange.accept(files);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Could not handle changes to " + files, e);
+        }
+    }
+    
+    /**
+     * Stop watching, pending changes are not reported
+     */
+    void close() {
+        executor.shutdownNow();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close the file watcher", e);
+        }
+        thread.interrupt();
+    }
+}
\ No newline at end of file
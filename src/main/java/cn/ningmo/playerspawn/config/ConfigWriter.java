@@ -0,0 +1,124 @@
+package cn.ningmo.playerspawn.config;
+
+import cn.ningmo.playerspawn.metrics.Metrics;
+import cn.ningmo.playerspawn.utils.FileUtils;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind saver for a configuration file.
+ * Changes only mark the file dirty; a background thread serializes and writes it once per burst.
+ */
+class ConfigWriter {
+    private final File file;
+    private final Object lock;
+    private final Supplier<FileConfiguration> source;
+    private final Logger logger;
+    private final Metrics metrics;
+    private final Consumer<byte[]> onWritten;
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long delayMillis;
+    
+    /**
+     * @param file The file to write
+     * @param lock The lock guarding every modification of the configuration
+     * @param source Supplies the current configuration
+     * @param logger The logger for write failures
+     * @param metrics The metrics recording write durations
+     * @param onWritten Receives the content after each successful write
+     */
+    ConfigWriter(File file, Object lock, Supplier<FileConfiguration> source, Logger logger, Metrics metrics,
+                 Consumer<byte[]> onWritten) {
+        this.file = file;
+        this.lock = lock;
+        this.source = source;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.onWritten = onWritten;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "PlayerSpawn-ConfigWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Pending delayed writes are replaced by the final flush in close()
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+    
+    /**
+     * Set how long to wait for more changes before writing
+     * @param delayMillis The delay in milliseconds
+     */
+    void setDelay(long delayMillis) {
+        this.delayMillis = Math.max(0, delayMillis);
+    }
+    
+    /**
+     * Mark the configuration as changed and schedule a write
+     */
+    void markDirty() {
+        dirty.set(true);
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shut down, the final flush writes the change
+                scheduled.set(false);
+            }
+        }
+    }
+    
+    /**
+     * Write the configuration now if it has unsaved changes
+     */
+    synchronized void flush() {
+        scheduled.set(false);
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        
+        long start = metrics.start();
+        
+        // Serialize under the lock so the snapshot never contains half of a change
+        String data;
+        synchronized (lock) {
+            data = source.get().saveToString();
+        }
+        
+        try {
+            byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            FileUtils.writeAtomically(file, bytes);
+            onWritten.accept(bytes);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not save config to " + file, e);
+            // Keep the change so the next write or the final flush retries it
+            dirty.set(true);
+        }
+        metrics.stop(metrics.getConfigSave(), start);
+    }
+    
+    /**
+     * Stop the background thread and write any unsaved changes on the calling thread
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
\ No newline at end of file
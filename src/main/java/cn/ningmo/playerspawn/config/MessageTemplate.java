@@ -0,0 +1,130 @@
+package cn.ningmo.playerspawn.config;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A message with its color codes translated and split at its {placeholder} slots.
+ * Rendering is a single pass over the literal parts into a buffer sized up front.
+ */
+public final class MessageTemplate {
+    private final String[] literals;
+    private final String[] slots;
+    private final int literalLength;
+    // Rendered form cached by the sender, e.g. an Adventure component, only for templates without slots
+    private volatile Object component;
+    
+    private MessageTemplate(String[] literals, String[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+    
+    /**
+     * Translate the color codes of a message and find its placeholders
+     * @param raw The message with '&' color codes
+     * @return The template
+     */
+    public static MessageTemplate compile(String raw) {
+        String text = ChatColor.translateAlternateColorCodes('&', raw);
+        List<String> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        
+        int literalStart = 0;
+        int open = text.indexOf('{');
+        while (open >= 0) {
+            int close = findSlotEnd(text, open);
+            if (close < 0) {
+                open = text.indexOf('{', open + 1);
+                continue;
+            }
+            literals.add(text.substring(literalStart, open));
+            slots.add(text.substring(open, close + 1));
+            literalStart = close + 1;
+            open = text.indexOf('{', literalStart);
+        }
+        literals.add(text.substring(literalStart));
+        
+        return new MessageTemplate(literals.toArray(new String[0]), slots.toArray(new String[0]));
+    }
+    
+    /**
+     * Find the closing brace of a placeholder name made of letters, digits, '_' and '-'
+     * @return The index of the closing brace, or -1 if the brace does not open a placeholder
+     */
+    private static int findSlotEnd(String text, int open) {
+        for (int i = open + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '}') {
+                return i > open + 1 ? i : -1;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Check whether the template has no placeholders
+     * @return True if rendering always gives the same text
+     */
+    public boolean isStatic() {
+        return slots.length == 0;
+    }
+    
+    /**
+     * Render the template. Placeholders without a value are kept as they are.
+     * @param placeholders The placeholders to fill (format: placeholder1, value1, placeholder2, value2, ...)
+     * @return The message
+     */
+    public String render(String... placeholders) {
+        if (slots.length == 0) {
+            return literals[0];
+        }
+        
+        int capacity = literalLength;
+        for (int i = 1; i < placeholders.length; i += 2) {
+            capacity += placeholders[i] != null ? placeholders[i].length() : 4;
+        }
+        
+        StringBuilder builder = new StringBuilder(capacity);
+        for (int i = 0; i < slots.length; i++) {
+            builder.append(literals[i]);
+            builder.append(valueOf(slots[i], placeholders));
+        }
+        builder.append(literals[slots.length]);
+        return builder.toString();
+    }
+    
+    private static String valueOf(String slot, String[] placeholders) {
+        for (int i = 0; i + 1 < placeholders.length; i += 2) {
+            if (slot.equals(placeholders[i])) {
+                return placeholders[i + 1];
+            }
+        }
+        return slot;
+    }
+    
+    /**
+     * Get the rendered form of a static template, converted once and cached
+     * @param converter Converts the message text, must always be the same converter
+     * @return The converted message
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getComponent(Function<String, T> converter) {
+        Object cached = component;
+        if (cached == null) {
+            cached = converter.apply(render());
+            component = cached;
+        }
+        return (T) cached;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+package cn.ningmo.playerspawn.config;
+
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of messages.yml compiled into templates, with and without the prefix.
+ * A new snapshot is compiled on every load and swapped in as a whole.
+ */
+public final class MessageTemplates {
+    private static final String DEFAULT_PREFIX = "&8[&aPlayerSpawn&8] &r";
+    
+    private final String prefix;
+    private final Map<String, MessageTemplate> prefixed;
+    private final Map<String, MessageTemplate> plain;
+    
+    private MessageTemplates(String prefix, Map<String, MessageTemplate> prefixed, Map<String, MessageTemplate> plain) {
+        this.prefix = prefix;
+        this.prefixed = prefixed;
+        this.plain = plain;
+    }
+    
+    /**
+     * Compile every message of a messages file, including the defaults it falls back to
+     * @param messages The messages file
+     * @return The compiled templates
+     */
+    public static MessageTemplates compile(Configuration messages) {
+        String prefix = messages.getString("prefix", DEFAULT_PREFIX);
+        
+        Set<String> paths = new LinkedHashSet<>(messages.getKeys(true));
+        ConfigurationSection defaults = messages.getDefaults();
+        if (defaults != null) {
+            paths.addAll(defaults.getKeys(true));
+        }
+        
+        Map<String, MessageTemplate> prefixed = new HashMap<>();
+        Map<String, MessageTemplate> plain = new HashMap<>();
+        for (String path : paths) {
+            if (!messages.isString(path)) {
+                continue;
+            }
+            String message = messages.getString(path);
+            prefixed.put(path, MessageTemplate.compile(prefix + message));
+            plain.put(path, MessageTemplate.compile(message));
+        }
+        return new MessageTemplates(prefix, prefixed, plain);
+    }
+    
+    /**
+     * Get the template of a message with the prefix
+     * @param path The message path
+     * @return The template, or a "message not found" template if the path has no message
+     */
+    public MessageTemplate get(String path) {
+        MessageTemplate template = prefixed.get(path);
+        return template != null ? template : MessageTemplate.compile(prefix + notFound(path));
+    }
+    
+    /**
+     * Get the template of a message without the prefix
+     * @param path The message path
+     * @return The template, or a "message not found" template if the path has no message
+     */
+    public MessageTemplate getWithoutPrefix(String path) {
+        MessageTemplate template = plain.get(path);
+        return template != null ? template : MessageTemplate.compile(notFound(path));
+    }
+    
+    private static String notFound(String path) {
+        return "&cMessage not found: " + path;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,433 @@
+package cn.ningmo.playerspawn.config;
+
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Immutable snapshot of every spawn point and spawn setting in config.yml.
+ * Compiled once per load so spawn resolution does no YAML lookups.
+ * Spawn tables whose config section did not change since the previous index are reused, not recompiled.
+ */
+public final class SpawnIndex {
+    private final boolean newPlayerEnabled;
+    private final boolean newPlayerUseDefault;
+    private final boolean respawnEnabled;
+    private final boolean respawnUsePlayerSpawn;
+    private final boolean respawnUseDefault;
+    
+    private final SpawnTable defaults;
+    private final SpawnPoint newPlayer;
+    private final SpawnTable respawn;
+    private final SpawnTable floodgate;
+    private final SpawnPoint floodgateNewPlayer;
+    private final SpawnTable floodgateRespawn;
+    private final List<GroupSpawn> groups;
+    private final List<SpawnPoint> spawnPoints;
+    // Compiled spawn tables and points by config path, with the section values they were compiled from
+    private final Map<String, Part> parts = new HashMap<>();
+    private int recompiled;
+    
+    private SpawnIndex(Configuration config, SpawnIndex previous) {
+        newPlayerEnabled = config.getBoolean("new_player.enabled", false);
+        newPlayerUseDefault = config.getBoolean("new_player.use_default_if_not_specified", true);
+        respawnEnabled = config.getBoolean("respawn.enabled", false);
+        respawnUsePlayerSpawn = config.getBoolean("respawn.use_player_spawn", true);
+        respawnUseDefault = config.getBoolean("respawn.use_default_if_not_specified", true);
+        
+        defaults = compileTable(config, previous, "default");
+        newPlayer = compilePart(config, previous, "new_player", () -> SpawnPoint.compile(config, "new_player"));
+        respawn = compileTable(config, previous, "respawn");
+        floodgate = compileTable(config, previous, "floodgate");
+        floodgateNewPlayer = compilePart(config, previous, "floodgate.new_player",
+                () -> compileEnabled(config, "floodgate.new_player"));
+        floodgateRespawn = compileTable(config, previous, "floodgate.respawn");
+        
+        List<GroupSpawn> groupList = new ArrayList<>();
+        for (String groupName : getKeys(config, "groups")) {
+            SpawnTable table = compileTable(config, previous, "groups." + groupName);
+            // Groups without any enabled spawn can never match, skip their permission checks
+            if (!table.isEmpty()) {
+                int priority = config.getInt("groups." + groupName + ".priority", 0);
+                groupList.add(new GroupSpawn(groupName, priority, table));
+            }
+        }
+        
+        // Highest priority first, ties broken by name so the order never depends on YAML key order
+        groupList.sort(Comparator.comparingInt(GroupSpawn::getPriority).reversed()
+                .thenComparing(GroupSpawn::getName));
+        groups = Collections.unmodifiableList(groupList);
+        
+        spawnPoints = Collections.unmodifiableList(collectSpawnPoints());
+    }
+    
+    /**
+     * Compile a spawn index from a configuration
+     * @param config The configuration, with its defaults attached
+     * @return The compiled spawn index
+     */
+    public static SpawnIndex compile(Configuration config) {
+        return new SpawnIndex(config, null);
+    }
+    
+    /**
+     * Compile a spawn index, reusing the spawn tables of a previous index whose config section is unchanged
+     * @param config The configuration, with its defaults attached
+     * @param previous The previous index (may be null)
+     * @return The compiled spawn index
+     */
+    public static SpawnIndex compile(Configuration config, SpawnIndex previous) {
+        return new SpawnIndex(config, previous);
+    }
+    
+    private SpawnTable compileTable(Configuration config, SpawnIndex previous, String path) {
+        return compilePart(config, previous, path, () -> SpawnTable.compile(config, path));
+    }
+    
+    /**
+     * Compile the part of the index under a config path, or take it from the previous index
+     * @param config The configuration
+     * @param previous The previous index (may be null)
+     * @param path The config path the part is compiled from
+     * @param compiler Compiles the part
+     * @return The compiled part
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T compilePart(Configuration config, SpawnIndex previous, String path, Supplier<T> compiler) {
+        Map<String, Object> source = getValues(config, path);
+        Part part = previous != null ? previous.parts.get(path) : null;
+        if (part == null || !part.source.equals(source)) {
+            part = new Part(source, compiler.get());
+            recompiled++;
+        }
+        parts.put(path, part);
+        return (T) part.value;
+    }
+    
+    /**
+     * Get the values of a section as flat path and value pairs, for comparing with an earlier load
+     * @param config The configuration
+     * @param path The section path
+     * @return The values below the section, without the nested sections themselves
+     */
+    private static Map<String, Object> getValues(Configuration config, String path) {
+        ConfigurationSection section = config.getConfigurationSection(path);
+        if (section == null) {
+            return Collections.emptyMap();
+        }
+        
+        Map<String, Object> values = new HashMap<>();
+        for (String key : section.getKeys(true)) {
+            Object value = section.get(key);
+            if (!(value instanceof ConfigurationSection)) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * Get the number of spawn tables and points compiled for this index instead of reused
+     * @return The number of recompiled parts
+     */
+    public int getRecompiledCount() {
+        return recompiled;
+    }
+    
+    private List<SpawnPoint> collectSpawnPoints() {
+        List<SpawnPoint> points = new ArrayList<>();
+        defaults.collect(points);
+        if (newPlayerEnabled) {
+            addPoint(points, newPlayer);
+        }
+        respawn.collect(points);
+        floodgate.collect(points);
+        if (floodgateNewPlayer != null) {
+            addPoint(points, floodgateNewPlayer);
+        }
+        floodgateRespawn.collect(points);
+        for (GroupSpawn group : groups) {
+            group.getSpawns().collect(points);
+        }
+        return points;
+    }
+    
+    /**
+     * Add a spawn point, or every candidate of a spread spawn
+     * @param points The list to add to
+     * @param point The spawn point
+     */
+    private static void addPoint(List<SpawnPoint> points, SpawnPoint point) {
+        if (point.getSpread() != null) {
+            points.addAll(point.getSpread().getPoints());
+        } else {
+            points.add(point);
+        }
+    }
+    
+    /**
+     * Get the keys of a section, including keys only present in the defaults
+     * @param config The configuration
+     * @param path The section path
+     * @return The section keys in file order
+     */
+    static Set<String> getKeys(Configuration config, String path) {
+        Set<String> keys = new LinkedHashSet<>();
+        ConfigurationSection section = config.getConfigurationSection(path);
+        if (section != null) {
+            keys.addAll(section.getKeys(false));
+        }
+        
+        Configuration defaults = config.getDefaults();
+        if (defaults != null) {
+            ConfigurationSection defaultSection = defaults.getConfigurationSection(path);
+            if (defaultSection != null) {
+                keys.addAll(defaultSection.getKeys(false));
+            }
+        }
+        return keys;
+    }
+    
+    /**
+     * Compile a spawn point guarded by an enabled flag
+     * @param config The configuration
+     * @param path The path holding the enabled flag and location section
+     * @return The spawn point, or null if disabled
+     */
+    static SpawnPoint compileEnabled(Configuration config, String path) {
+        if (!config.getBoolean(path + ".enabled", false)) {
+            return null;
+        }
+        return SpawnPoint.compile(config, path);
+    }
+    
+    public boolean isNewPlayerEnabled() {
+        return newPlayerEnabled;
+    }
+    
+    public boolean isNewPlayerUseDefault() {
+        return newPlayerUseDefault;
+    }
+    
+    public boolean isRespawnEnabled() {
+        return respawnEnabled;
+    }
+    
+    public boolean isRespawnUsePlayerSpawn() {
+        return respawnUsePlayerSpawn;
+    }
+    
+    public boolean isRespawnUseDefault() {
+        return respawnUseDefault;
+    }
+    
+    public SpawnTable getDefaults() {
+        return defaults;
+    }
+    
+    public SpawnPoint getNewPlayer() {
+        return newPlayer;
+    }
+    
+    public SpawnTable getRespawn() {
+        return respawn;
+    }
+    
+    public SpawnTable getFloodgate() {
+        return floodgate;
+    }
+    
+    public SpawnPoint getFloodgateNewPlayer() {
+        return floodgateNewPlayer;
+    }
+    
+    public SpawnTable getFloodgateRespawn() {
+        return floodgateRespawn;
+    }
+    
+    /**
+     * Get every enabled shared spawn point (default, new player, respawn, Floodgate and group spawns),
+     * including every candidate of spread spawns
+     * @return The spawn points, possibly with duplicates
+     */
+    public List<SpawnPoint> getSpawnPoints() {
+        return spawnPoints;
+    }
+    
+    /**
+     * Get the groups that have at least one enabled spawn, in priority order
+     * @return The group spawns
+     */
+    public List<GroupSpawn> getGroups() {
+        return groups;
+    }
+    
+    /**
+     * Enabled server-wide and per-world spawns under one config path
+     */
+    public static final class SpawnTable {
+        private static final SpawnTable EMPTY = new SpawnTable(null, Collections.emptyMap());
+        
+        private final SpawnPoint server;
+        private final Map<String, SpawnPoint> worlds;
+        
+        private SpawnTable(SpawnPoint server, Map<String, SpawnPoint> worlds) {
+            this.server = server;
+            this.worlds = worlds;
+        }
+        
+        /**
+         * Get the empty spawn table
+         * @return A table without any spawn
+         */
+        public static SpawnTable empty() {
+            return EMPTY;
+        }
+        
+        /**
+         * Compile the server and world spawns under a config path
+         * @param config The configuration
+         * @param path The path holding the server and worlds sections
+         * @return The spawn table
+         */
+        public static SpawnTable compile(Configuration config, String path) {
+            SpawnPoint server = compileEnabled(config, path + ".server");
+            
+            Map<String, SpawnPoint> worlds = new HashMap<>();
+            for (String worldName : getKeys(config, path + ".worlds")) {
+                SpawnPoint point = compileEnabled(config, path + ".worlds." + worldName);
+                if (point != null) {
+                    worlds.put(worldName, point);
+                }
+            }
+            
+            return of(server, worlds);
+        }
+        
+        /**
+         * Create a spawn table
+         * @param server The server-wide spawn (may be null)
+         * @param worlds The world spawns keyed by world name
+         * @return The spawn table
+         */
+        public static SpawnTable of(SpawnPoint server, Map<String, SpawnPoint> worlds) {
+            if (server == null && worlds.isEmpty()) {
+                return EMPTY;
+            }
+            return new SpawnTable(server, Collections.unmodifiableMap(new HashMap<>(worlds)));
+        }
+        
+        /**
+         * Copy this table with one spawn replaced
+         * @param worldName The world name (null for server spawn)
+         * @param point The new spawn point (null to remove it)
+         * @return The updated spawn table
+         */
+        public SpawnTable with(String worldName, SpawnPoint point) {
+            if (worldName == null) {
+                return of(point, worlds);
+            }
+            
+            Map<String, SpawnPoint> updated = new HashMap<>(worlds);
+            if (point != null) {
+                updated.put(worldName, point);
+            } else {
+                updated.remove(worldName);
+            }
+            return of(server, updated);
+        }
+        
+        /**
+         * Get the server-wide spawn
+         * @return The spawn point, or null if not enabled
+         */
+        public SpawnPoint getServer() {
+            return server;
+        }
+        
+        /**
+         * Get the spawn for a world
+         * @param worldName The world name (may be null)
+         * @return The spawn point, or null if not enabled
+         */
+        public SpawnPoint getWorld(String worldName) {
+            return worldName == null ? null : worlds.get(worldName);
+        }
+        
+        /**
+         * Get all enabled world spawns
+         * @return The world spawns keyed by world name
+         */
+        public Map<String, SpawnPoint> getWorlds() {
+            return worlds;
+        }
+        
+        public boolean isEmpty() {
+            return server == null && worlds.isEmpty();
+        }
+        
+        private void collect(List<SpawnPoint> points) {
+            if (server != null) {
+                addPoint(points, server);
+            }
+            for (SpawnPoint point : worlds.values()) {
+                addPoint(points, point);
+            }
+        }
+    }
+    
+    /**
+     * A compiled part of the index and the section values it was compiled from
+     */
+    private static final class Part {
+        private final Map<String, Object> source;
+        private final Object value;
+        
+        private Part(Map<String, Object> source, Object value) {
+            this.source = source;
+            this.value = value;
+        }
+    }
+    
+    /**
+     * A group and its compiled spawn table
+     */
+    public static final class GroupSpawn {
+        private final String name;
+        private final String permission;
+        private final int priority;
+        private final SpawnTable spawns;
+        
+        private GroupSpawn(String name, int priority, SpawnTable spawns) {
+            this.name = name;
+            this.permission = "playerspawn.group." + name;
+            this.priority = priority;
+            this.spawns = spawns;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public int getPriority() {
+            return priority;
+        }
+        
+        public String getPermission() {
+            return permission;
+        }
+        
+        public SpawnTable getSpawns() {
+            return spawns;
+        }
+    }
+}
\ No newline at end of file
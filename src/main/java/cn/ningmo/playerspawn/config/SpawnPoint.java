@@ -0,0 +1,140 @@
+package cn.ningmo.playerspawn.config;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Immutable spawn location compiled from the config.
+ * The world is resolved lazily so that points in worlds loaded after the config still work.
+ */
+public final class SpawnPoint {
+    private final String worldName;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final float yaw;
+    private final float pitch;
+    // Further candidate points when the spawn is spread, null for a single point
+    private final SpawnSpread spread;
+    
+    // Cached location, Location only keeps a weak reference to its world
+    private volatile Location template;
+    
+    public SpawnPoint(String worldName, double x, double y, double z, float yaw, float pitch) {
+        this(worldName, x, y, z, yaw, pitch, null);
+    }
+    
+    private SpawnPoint(String worldName, double x, double y, double z, float yaw, float pitch, SpawnSpread spread) {
+        this.worldName = worldName;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.spread = spread;
+    }
+    
+    /**
+     * Read a spawn point from a location section
+     * @param config The configuration
+     * @param path The path to the location section
+     * @return The spawn point, with a null world name if the section has no world
+     */
+    public static SpawnPoint fromConfig(ConfigurationSection config, String path) {
+        if (!config.contains(path + ".world")) {
+            return new SpawnPoint(null, 0, 64, 0, 0, 0);
+        }
+        
+        return new SpawnPoint(
+                config.getString(path + ".world"),
+                config.getDouble(path + ".x", 0),
+                config.getDouble(path + ".y", 64),
+                config.getDouble(path + ".z", 0),
+                (float) config.getDouble(path + ".yaw", 0),
+                (float) config.getDouble(path + ".pitch", 0));
+    }
+    
+    /**
+     * Create a spawn point from a location
+     * @param location The location, its world must be set
+     * @return The spawn point
+     */
+    public static SpawnPoint of(Location location) {
+        return new SpawnPoint(location.getWorld().getName(), location.getX(), location.getY(), location.getZ(),
+                location.getYaw(), location.getPitch());
+    }
+    
+    /**
+     * Read a spawn from a section holding a location, or a locations list or region to spread players over
+     * @param config The configuration
+     * @param path The path holding the location, locations and region sections
+     * @return The spawn point, the first candidate if the spawn is spread
+     */
+    public static SpawnPoint compile(ConfigurationSection config, String path) {
+        SpawnSpread spread = SpawnSpread.compile(config, path);
+        if (spread == null) {
+            return fromConfig(config, path + ".location");
+        }
+        
+        SpawnPoint first = spread.getPoint(0);
+        return new SpawnPoint(first.worldName, first.x, first.y, first.z, first.yaw, first.pitch, spread);
+    }
+    
+    /**
+     * Create a new location for this spawn point
+     * @return A new location, or null if the world is missing or not loaded
+     */
+    public Location toLocation() {
+        Location cached = template;
+        if (cached != null && cached.isWorldLoaded()) {
+            return cached.clone();
+        }
+        
+        if (worldName == null) {
+            return null;
+        }
+        
+        World world = Bukkit.getWorld(worldName);
+        if (world == null) {
+            return null;
+        }
+        
+        cached = new Location(world, x, y, z, yaw, pitch);
+        template = cached;
+        return cached.clone();
+    }
+    
+    /**
+     * Get the candidate points of a spread spawn
+     * @return The spread, or null for a single point
+     */
+    public SpawnSpread getSpread() {
+        return spread;
+    }
+    
+    public String getWorldName() {
+        return worldName;
+    }
+    
+    public double getX() {
+        return x;
+    }
+    
+    public double getY() {
+        return y;
+    }
+    
+    public double getZ() {
+        return z;
+    }
+    
+    public float getYaw() {
+        return yaw;
+    }
+    
+    public float getPitch() {
+        return pitch;
+    }
+}
\ No newline at end of file
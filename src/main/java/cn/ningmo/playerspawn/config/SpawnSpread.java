@@ -0,0 +1,297 @@
+package cn.ningmo.playerspawn.config;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A spawn spread over several candidate points, read from a locations list or a region.
+ * Every selection mode picks a candidate in constant time; the load of each candidate is updated
+ * incrementally as players are placed and leave, so nothing scans entities.
+ */
+public final class SpawnSpread {
+    // Regions are split into at most this many candidate points
+    private static final int MAX_REGION_POINTS = 1024;
+    
+    /**
+     * How a candidate point is picked
+     */
+    public enum Mode {
+        LEAST_LOADED,
+        ROUND_ROBIN,
+        WEIGHTED
+    }
+    
+    private final List<SpawnPoint> points;
+    private final Mode mode;
+    
+    // Round robin cursor
+    private int next;
+    
+    // Alias tables for weighted selection
+    private final double[] probability;
+    private final int[] alias;
+    
+    // Candidates ordered by load; start[c] is the first position in order with a load of at least c
+    private final int[] load;
+    private final int[] order;
+    private final int[] position;
+    private int[] start;
+    
+    private SpawnSpread(List<SpawnPoint> points, double[] weights, Mode mode) {
+        this.points = Collections.unmodifiableList(points);
+        this.mode = mode;
+        
+        int size = points.size();
+        load = new int[size];
+        order = new int[size];
+        position = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+            position[i] = i;
+        }
+        start = new int[4];
+        Arrays.fill(start, size);
+        start[0] = 0;
+        
+        probability = new double[size];
+        alias = new int[size];
+        buildAliasTable(weights);
+    }
+    
+    /**
+     * Compile the spread of a spawn, if it has one
+     * @param config The configuration
+     * @param path The path holding the location, locations and region sections
+     * @return The spread, or null if the spawn has a single location
+     */
+    static SpawnSpread compile(ConfigurationSection config, String path) {
+        List<SpawnPoint> points = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        
+        if (config.isList(path + ".locations")) {
+            for (Map<?, ?> entry : config.getMapList(path + ".locations")) {
+                Object world = entry.get("world");
+                points.add(new SpawnPoint(
+                        world != null ? world.toString() : null,
+                        number(entry, "x", 0),
+                        number(entry, "y", 64),
+                        number(entry, "z", 0),
+                        (float) number(entry, "yaw", 0),
+                        (float) number(entry, "pitch", 0)));
+                weights.add(number(entry, "weight", 1));
+            }
+        } else if (config.isConfigurationSection(path + ".region")) {
+            ConfigurationSection region = config.getConfigurationSection(path + ".region");
+            if (region.contains("world")) {
+                collectRegion(region, points);
+            }
+            for (int i = 0; i < points.size(); i++) {
+                weights.add(1.0);
+            }
+        }
+        
+        if (points.isEmpty()) {
+            return null;
+        }
+        
+        double[] weightArray = new double[weights.size()];
+        for (int i = 0; i < weightArray.length; i++) {
+            weightArray[i] = weights.get(i);
+        }
+        return new SpawnSpread(points, weightArray, parseMode(config.getString(path + ".spread", "least_loaded")));
+    }
+    
+    /**
+     * Split a region into a grid of candidate points
+     * @param region The region section
+     * @param points The list to add the points to
+     */
+    private static void collectRegion(ConfigurationSection region, List<SpawnPoint> points) {
+        String world = region.getString("world");
+        double minX = Math.min(region.getDouble("min_x"), region.getDouble("max_x"));
+        double maxX = Math.max(region.getDouble("min_x"), region.getDouble("max_x"));
+        double minZ = Math.min(region.getDouble("min_z"), region.getDouble("max_z"));
+        double maxZ = Math.max(region.getDouble("min_z"), region.getDouble("max_z"));
+        double y = region.getDouble("y", 64);
+        float yaw = (float) region.getDouble("yaw", 0);
+        float pitch = (float) region.getDouble("pitch", 0);
+        
+        // Widen the spacing for large regions so the candidate count stays bounded
+        double spacing = Math.max(1, region.getDouble("spacing", 16));
+        double area = (maxX - minX + 1) * (maxZ - minZ + 1);
+        spacing = Math.max(spacing, Math.ceil(Math.sqrt(area / MAX_REGION_POINTS)));
+        
+        for (double x = minX; x <= maxX && points.size() < MAX_REGION_POINTS; x += spacing) {
+            for (double z = minZ; z <= maxZ && points.size() < MAX_REGION_POINTS; z += spacing) {
+                points.add(new SpawnPoint(world, x, y, z, yaw, pitch));
+            }
+        }
+    }
+    
+    private static double number(Map<?, ?> map, String key, double def) {
+        Object value = map.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : def;
+    }
+    
+    private static Mode parseMode(String name) {
+        try {
+            return Mode.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Mode.LEAST_LOADED;
+        }
+    }
+    
+    /**
+     * Build the alias tables (Vose's method) for constant time weighted selection
+     * @param weights The weight of each point
+     */
+    private void buildAliasTable(double[] weights) {
+        int size = weights.length;
+        double sum = 0;
+        for (double weight : weights) {
+            sum += Math.max(0, weight);
+        }
+        
+        double[] scaled = new double[size];
+        for (int i = 0; i < size; i++) {
+            // All weights zero or negative means uniform selection
+            scaled[i] = sum > 0 ? Math.max(0, weights[i]) * size / sum : 1;
+        }
+        
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[--largeCount];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+        while (largeCount > 0) {
+            probability[large[--largeCount]] = 1;
+        }
+        while (smallCount > 0) {
+            probability[small[--smallCount]] = 1;
+        }
+    }
+    
+    /**
+     * Pick a candidate without counting a player on it
+     * @return The candidate index
+     */
+    public synchronized int select() {
+        switch (mode) {
+            case ROUND_ROBIN:
+                int index = next;
+                next = (next + 1) % points.size();
+                return index;
+            case WEIGHTED:
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int column = random.nextInt(points.size());
+                return random.nextDouble() < probability[column] ? column : alias[column];
+            default:
+                return order[0];
+        }
+    }
+    
+    /**
+     * Pick a candidate and count a player on it
+     * @return The candidate index, to pass to {@link #release(int)} once the player left
+     */
+    public synchronized int acquire() {
+        int index = select();
+        increment(index);
+        return index;
+    }
+    
+    /**
+     * Stop counting a player on a candidate
+     * @param index The candidate index returned by {@link #acquire()}
+     */
+    public synchronized void release(int index) {
+        decrement(index);
+    }
+    
+    /**
+     * Get the number of players counted on a candidate
+     * @param index The candidate index
+     * @return The load
+     */
+    public synchronized int getLoad(int index) {
+        return load[index];
+    }
+    
+    public SpawnPoint getPoint(int index) {
+        return points.get(index);
+    }
+    
+    public List<SpawnPoint> getPoints() {
+        return points;
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    private void increment(int index) {
+        int current = load[index];
+        ensureBucket(current + 1);
+        // Move the point to the end of its bucket, then shrink the bucket by one
+        int last = start[current + 1] - 1;
+        swap(position[index], last);
+        start[current + 1]--;
+        load[index]++;
+    }
+    
+    private void decrement(int index) {
+        int current = load[index];
+        if (current == 0) {
+            return;
+        }
+        // Move the point to the front of its bucket, then hand that slot to the bucket below
+        int first = start[current];
+        swap(position[index], first);
+        start[current]++;
+        load[index]--;
+    }
+    
+    private void ensureBucket(int bucket) {
+        if (bucket < start.length) {
+            return;
+        }
+        int oldLength = start.length;
+        start = Arrays.copyOf(start, Math.max(bucket + 1, oldLength * 2));
+        Arrays.fill(start, oldLength, start.length, points.size());
+    }
+    
+    private void swap(int i, int j) {
+        int a = order[i];
+        int b = order[j];
+        order[i] = b;
+        order[j] = a;
+        position[b] = i;
+        position[a] = j;
+    }
+}
\ No newline at end of file
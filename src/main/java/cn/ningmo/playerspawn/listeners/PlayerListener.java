@@ -7,92 +7,183 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerRespawnEvent;
-import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.event.player.PlayerBedEnterEvent;
 import org.bukkit.event.block.BlockBreakEvent;
 
 import cn.ningmo.playerspawn.PlayerSpawn;
+import cn.ningmo.playerspawn.metrics.Metrics;
+import cn.ningmo.playerspawn.session.PlayerSession;
+import cn.ningmo.playerspawn.utils.SchedulerUtils;
 import cn.ningmo.playerspawn.utils.SpawnUtils;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Listener for player events related to spawning
  */
 public class PlayerListener implements Listener {
     private final PlayerSpawn plugin;
-    private final Map<UUID, Location> logoutLocations = new HashMap<>();
+    // Settings read once per load instead of on every event
+    private volatile String rejoinBehavior = "nothing";
+    private volatile boolean teleportOnJoin;
+    private volatile boolean respectBedAndAnchor = true;
+    private volatile boolean saveLogoutLocation = true;
+    private volatile boolean spawnLocationEvent;
+    // Players whose join target was applied by the spawn location event, so the join leaves them alone
+    private final Set<UUID> placedBeforeJoin = ConcurrentHashMap.newKeySet();
+    // Locations of online players read on their own threads, for the shutdown on Folia
+    private final Map<UUID, Location> lastLocations = new ConcurrentHashMap<>();
     
     public PlayerListener(PlayerSpawn plugin) {
         this.plugin = plugin;
     }
     
+    /**
+     * Apply the join, quit and respawn settings
+     * @param config The configuration
+     */
+    public void configure(FileConfiguration config) {
+        rejoinBehavior = config.getString("on_rejoin.behavior", "nothing").toLowerCase();
+        teleportOnJoin = config.getBoolean("teleport_on_join", false);
+        respectBedAndAnchor = config.getBoolean("vanilla_mechanics.respect_bed_and_anchor", true);
+        saveLogoutLocation = config.getBoolean("on_rejoin.save_logout_location", true);
+        spawnLocationEvent = config.getBoolean("join_teleport.spawn_location_event", false);
+    }
+    
+    /**
+     * Load the spawns, logout location, first join and Floodgate status of a player that is about to join,
+     * off the main thread. The join then only takes the staged result.
+     * @param event The async player pre-login event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            plugin.getPlayerSpawnStore().preload(event.getUniqueId());
+            plugin.getLogoutLocationStore().preload(event.getUniqueId());
+            plugin.getSessionManager().stage(event.getUniqueId());
+        }
+    }
+    
     /**
      * Handle player join event
      * @param event The player join event
      */
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerJoin(PlayerJoinEvent event) {
-        Player player = event.getPlayer();
+        Metrics metrics = plugin.getMetrics();
+        long start = metrics.start();
+        try {
+            handleJoin(event.getPlayer());
+        } finally {
+            metrics.stop(metrics.getJoin(), start);
+        }
+    }
+    
+    /**
+     * Send a joining player to their spawn, unless the spawn location event already took care of them
+     * @param player The joining player
+     */
+    private void handleJoin(Player player) {
+        if (placedBeforeJoin.remove(player.getUniqueId())) {
+            return;
+        }
+        
+        // Resolve spawn group membership once, later lookups use the cache
+        plugin.getGroupResolver().refresh(player, plugin.getConfigManager().getSpawnIndex());
+        placeJoiningPlayer(player, player.getWorld(),
+                (location, afterArrival) -> teleportAfterJoin(player, location, afterArrival));
+    }
+    
+    /**
+     * Create a joining player at their join target instead of teleporting them after the join,
+     * so their chunks are loaded and their position is sent only once. Called by the spawn location event;
+     * players it does not reach are teleported after the join.
+     * @param player The player, not yet joined
+     * @param spawnLocation The location the server would create the player at
+     * @param setSpawnLocation Changes the location the player is created at
+     */
+    public void placeBeforeJoin(Player player, Location spawnLocation, Consumer<Location> setSpawnLocation) {
+        if (!spawnLocationEvent || spawnLocation == null || spawnLocation.getWorld() == null) {
+            return;
+        }
         
-        // Check if this is the player's first time joining
-        if (!player.hasPlayedBefore()) {
+        Metrics metrics = plugin.getMetrics();
+        long start = metrics.start();
+        try {
+            plugin.getGroupResolver().refresh(player, plugin.getConfigManager().getSpawnIndex());
+            placeJoiningPlayer(player, spawnLocation.getWorld(), (location, afterArrival) -> {
+                setSpawnLocation.accept(location);
+                if (afterArrival != null) {
+                    afterArrival.run();
+                }
+            });
+            // Players without a join target stay where the server put them, the join has nothing left to do
+            placedBeforeJoin.add(player.getUniqueId());
+        } finally {
+            metrics.stop(metrics.getJoin(), start);
+        }
+    }
+    
+    /**
+     * Find where a joining player belongs, depending on the join settings
+     * @param player The joining player
+     * @param world The world the player joins in
+     * @param placement Moves the player to the target, running the callback once they are there (may be null)
+     */
+    private void placeJoiningPlayer(Player player, World world, BiConsumer<Location, Runnable> placement) {
+        // Check if this is the player's first time joining, staged before the join
+        PlayerSession session = plugin.getSessionManager().get(player);
+        if (session.isFirstJoin()) {
             // Get new player spawn location, passing the player to check for Floodgate status
-            Location newPlayerSpawn = SpawnUtils.getNewPlayerSpawn(player);
+            Location newPlayerSpawn = SpawnUtils.placeNewPlayerSpawn(player);
             
             // Teleport player to new player spawn if set
             if (newPlayerSpawn != null) {
-                // Use a delayed task to ensure the teleport happens after the player fully joins
-                plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                    player.teleport(newPlayerSpawn, PlayerTeleportEvent.TeleportCause.PLUGIN);
-                }, 5L); // 5 tick delay (0.25 seconds)
+                placement.accept(newPlayerSpawn, null);
             }
         } else {
             // Handle rejoining players
-            String rejoinBehavior = plugin.getConfigManager().getConfig().getString("on_rejoin.behavior", "nothing");
-            
-            switch (rejoinBehavior.toLowerCase()) {
+            switch (rejoinBehavior) {
                 case "last_location":
                     // Teleport player to their last logout location
-                    Location lastLocation = logoutLocations.get(player.getUniqueId());
+                    Location lastLocation = SpawnUtils.getLogoutLocation(player);
                     if (lastLocation != null) {
-                        // Use a delayed task to ensure the teleport happens after the player fully joins
-                        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                            player.teleport(lastLocation, PlayerTeleportEvent.TeleportCause.PLUGIN);
-                            logoutLocations.remove(player.getUniqueId()); // Clean up after use
-                        }, 5L);
+                        placement.accept(lastLocation, () -> {
+                            // Clean up after use
+                            plugin.getLogoutLocationStore().remove(player.getUniqueId());
+                            plugin.getSessionManager().get(player).clearLogoutLocation();
+                        });
                     }
                     break;
                     
                 case "spawn":
                     // Teleport player to their spawn location
-                    Location playerSpawn = SpawnUtils.getPlayerSpawn(player, player.getWorld());
+                    Location playerSpawn = SpawnUtils.placePlayerSpawn(player, world);
                     if (playerSpawn != null) {
-                        // Use a delayed task to ensure the teleport happens after the player fully joins
-                        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                            player.teleport(playerSpawn, PlayerTeleportEvent.TeleportCause.PLUGIN);
-                        }, 5L);
+                        placement.accept(playerSpawn, null);
                     }
                     break;
                     
                 default:
                     // "nothing" or any other value - just let the player join normally
                     // But we still handle teleport_on_join setting for backward compatibility
-                    if (plugin.getConfigManager().getConfig().getBoolean("teleport_on_join", false)) {
+                    if (teleportOnJoin) {
                         // Get player's spawn location
-                        Location playerDefaultSpawn = SpawnUtils.getPlayerSpawn(player, player.getWorld());
+                        Location playerDefaultSpawn = SpawnUtils.placePlayerSpawn(player, world);
                         
                         // Teleport player to their spawn if set
                         if (playerDefaultSpawn != null) {
-                            // Use a delayed task to ensure the teleport happens after the player fully joins
-                            plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                                player.teleport(playerDefaultSpawn, PlayerTeleportEvent.TeleportCause.PLUGIN);
-                            }, 5L);
+                            placement.accept(playerDefaultSpawn, null);
                         }
                     }
                     break;
@@ -100,6 +191,17 @@ public class PlayerListener implements Listener {
         }
     }
     
+    /**
+     * Queue the teleport of a joining player, new players are served first
+     * @param player The player
+     * @param location The target location
+     * @param afterTeleport Run after a successful teleport (may be null)
+     */
+    private void teleportAfterJoin(Player player, Location location, Runnable afterTeleport) {
+        boolean newPlayer = plugin.getSessionManager().get(player).isFirstJoin();
+        plugin.getTeleportQueue().enqueue(player, location, newPlayer, afterTeleport);
+    }
+    
     /**
      * Handle player quit event
      * @param event The player quit event
@@ -107,26 +209,87 @@ public class PlayerListener implements Listener {
     @EventHandler(priority = EventPriority.NORMAL)
     public void onPlayerQuit(PlayerQuitEvent event) {
         Player player = event.getPlayer();
-        FileConfiguration config = plugin.getConfigManager().getConfig();
         
         // Save logout location if enabled
-        if (config.getBoolean("on_rejoin.save_logout_location", true)) {
-            logoutLocations.put(player.getUniqueId(), player.getLocation());
+        if (saveLogoutLocation) {
+            plugin.getLogoutLocationStore().put(player.getUniqueId(), player.getLocation());
+        }
+        
+        // Player spawns are loaded again on next access
+        plugin.getPlayerSpawnStore().unload(player.getUniqueId());
+        plugin.getLogoutLocationStore().unload(player.getUniqueId());
+        plugin.getGroupResolver().invalidate(player.getUniqueId());
+        placedBeforeJoin.remove(player.getUniqueId());
+        lastLocations.remove(player.getUniqueId());
+    }
+    
+    /**
+     * Remember the location of every online player on the thread owning it.
+     * Only needed on Folia, where the shutdown may not read players of other regions.
+     */
+    public void captureLocations() {
+        if (!saveLogoutLocation || !SchedulerUtils.isFolia()) {
+            return;
+        }
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            SchedulerUtils.runForEntity(plugin, player, () -> {
+                if (player.isOnline()) {
+                    lastLocations.put(player.getUniqueId(), player.getLocation());
+                }
+            });
+        }
+    }
+    
+    /**
+     * Save the logout location of every online player. Plugins are disabled before players are
+     * disconnected, so the quit event never comes for them on shutdown.
+     * Players owned by another thread get the location last captured for them.
+     */
+    public void saveOnlineLogoutLocations() {
+        if (!saveLogoutLocation) {
+            return;
+        }
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            Location location = SchedulerUtils.isOwnedByCurrentThread(player)
+                    ? player.getLocation() : lastLocations.get(player.getUniqueId());
+            if (location != null) {
+                plugin.getLogoutLocationStore().put(player.getUniqueId(), location);
+            }
         }
     }
     
+    /**
+     * Handle world change event, permissions may depend on the world.
+     * Resolved spawns are kept per world and dropped by the session once the groups turn out different.
+     * @param event The player changed world event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        plugin.getGroupResolver().invalidate(event.getPlayer().getUniqueId());
+    }
+    
     /**
      * Handle player respawn event
      * @param event The player respawn event
      */
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerRespawn(PlayerRespawnEvent event) {
+        Metrics metrics = plugin.getMetrics();
+        long start = metrics.start();
+        try {
+            handleRespawn(event);
+        } finally {
+            metrics.stop(metrics.getRespawn(), start);
+        }
+    }
+    
+    /**
+     * Set the respawn location unless vanilla bed and anchor spawns take precedence
+     * @param event The player respawn event
+     */
+    private void handleRespawn(PlayerRespawnEvent event) {
         Player player = event.getPlayer();
         World world = player.getWorld();
-        FileConfiguration config = plugin.getConfigManager().getConfig();
-        
-        // Check if we should respect vanilla bed and respawn anchor mechanics
-        boolean respectBedAndAnchor = config.getBoolean("vanilla_mechanics.respect_bed_and_anchor", true);
         
         // If player has a bed/respawn anchor spawn and we're respecting those
         if (respectBedAndAnchor && event.isBedSpawn()) {
@@ -134,8 +297,8 @@ public class PlayerListener implements Listener {
             return;
         }
         
-        // Get respawn location
-        Location respawnLocation = SpawnUtils.getRespawnLocation(player, world);
+        // Get respawn location, resolved once per world in the player's session
+        Location respawnLocation = SpawnUtils.placeRespawnLocation(player, world);
         
         // Set respawn location if found
         if (respawnLocation != null) {
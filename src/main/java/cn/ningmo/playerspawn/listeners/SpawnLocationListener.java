@@ -0,0 +1,42 @@
+package cn.ningmo.playerspawn.listeners;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.spigotmc.event.player.PlayerSpawnLocationEvent;
+
+import cn.ningmo.playerspawn.PlayerSpawn;
+
+/**
+ * Listener choosing where joining players are created, kept apart from PlayerListener
+ * because the event only exists on Spigot and its forks
+ */
+public class SpawnLocationListener implements Listener {
+    private final PlayerSpawn plugin;
+    private final PlayerListener playerListener;
+    
+    public SpawnLocationListener(PlayerSpawn plugin, PlayerListener playerListener) {
+        this.plugin = plugin;
+        this.playerListener = playerListener;
+    }
+    
+    /**
+     * Check if the server fires the spawn location event
+     * @return True if this listener can be registered
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("org.spigotmc.event.player.PlayerSpawnLocationEvent");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+    
+    @EventHandler(priority = EventPriority.HIGH)
+    public void onPlayerSpawnLocation(PlayerSpawnLocationEvent event) {
+        // Fired before the join event, so the session is opened here
+        plugin.getSessionManager().openBeforeJoin(event.getPlayer());
+        playerListener.placeBeforeJoin(event.getPlayer(), event.getSpawnLocation(), event::setSpawnLocation);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,171 @@
+package cn.ningmo.playerspawn.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timers, counters and gauges of the plugin's hot paths.
+ * When disabled, {@link #start()} returns 0 without reading the clock and every record call returns right away.
+ */
+public class Metrics {
+    private volatile boolean enabled;
+    
+    private final Map<ResolutionTier, LatencyHistogram> resolution = new EnumMap<>(ResolutionTier.class);
+    private final LatencyHistogram join = new LatencyHistogram("join");
+    private final LatencyHistogram respawn = new LatencyHistogram("respawn");
+    private final LatencyHistogram configSave = new LatencyHistogram("config_save");
+    private final LatencyHistogram reload = new LatencyHistogram("reload");
+    private final List<LatencyHistogram> timers = Collections.unmodifiableList(
+            Arrays.asList(join, respawn, configSave, reload));
+    
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+    
+    public Metrics() {
+        for (ResolutionTier tier : ResolutionTier.values()) {
+            resolution.put(tier, new LatencyHistogram(tier.name().toLowerCase()));
+        }
+    }
+    
+    /**
+     * Turn recording on or off, recorded values are kept
+     * @param enabled Whether to record
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Start timing an operation
+     * @return The start time to pass to a record method, 0 when disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+    
+    /**
+     * Record the duration of an operation
+     * @param timer The timer
+     * @param start The value returned by {@link #start()}
+     */
+    public void stop(LatencyHistogram timer, long start) {
+        if (start != 0L) {
+            timer.record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Record a player spawn lookup and the tier that answered it
+     * @param tier The tier
+     * @param start The value returned by {@link #start()}
+     */
+    public void recordResolution(ResolutionTier tier, long start) {
+        if (start != 0L) {
+            resolution.get(tier).record(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Get the lookup timer of a resolution tier, its count is the number of lookups the tier answered
+     * @param tier The tier
+     * @return The timer
+     */
+    public LatencyHistogram getResolution(ResolutionTier tier) {
+        return resolution.get(tier);
+    }
+    
+    public LatencyHistogram getJoin() {
+        return join;
+    }
+    
+    public LatencyHistogram getRespawn() {
+        return respawn;
+    }
+    
+    public LatencyHistogram getConfigSave() {
+        return configSave;
+    }
+    
+    public LatencyHistogram getReload() {
+        return reload;
+    }
+    
+    /**
+     * Get the timers that are not per resolution tier
+     * @return The join, respawn, config save and reload timers
+     */
+    public List<LatencyHistogram> getTimers() {
+        return timers;
+    }
+    
+    /**
+     * Register a value read when metrics are shown or exported
+     * @param name The gauge name, lowercase with underscores
+     * @param value Supplies the current value, must be safe to call from any thread
+     */
+    public void registerGauge(String name, DoubleSupplier value) {
+        gauges.add(new Gauge(name, value));
+    }
+    
+    public List<Gauge> getGauges() {
+        return Collections.unmodifiableList(gauges);
+    }
+    
+    public void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+    
+    public void removeExporter(MetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+    
+    public boolean hasExporters() {
+        return !exporters.isEmpty();
+    }
+    
+    /**
+     * Run every exporter, logging failures
+     * @param logger The logger
+     */
+    public void export(Logger logger) {
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.export(this);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not export metrics", e);
+            }
+        }
+    }
+    
+    /**
+     * A named value read on demand
+     */
+    public static final class Gauge {
+        private final String name;
+        private final DoubleSupplier value;
+        
+        private Gauge(String name, DoubleSupplier value) {
+            this.name = name;
+            this.value = value;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public double getValue() {
+            return value.getAsDouble();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,15 @@
+package cn.ningmo.playerspawn.metrics;
+
+import java.io.IOException;
+
+/**
+ * Publishes a snapshot of the plugin metrics, called periodically off the main thread
+ */
+public interface MetricsExporter {
+    /**
+     * Export the current values
+     * @param metrics The metrics
+     * @throws IOException If the values could not be written
+     */
+    void export(Metrics metrics) throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+package cn.ningmo.playerspawn.metrics;
+
+import cn.ningmo.playerspawn.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes the metrics in the Prometheus text format to a local file,
+ * for the node exporter textfile collector or any scraper reading files
+ */
+public class PrometheusFileExporter implements MetricsExporter {
+    private static final String PREFIX = "playerspawn_";
+    
+    private final File file;
+    
+    public PrometheusFileExporter(File file) {
+        this.file = file;
+    }
+    
+    @Override
+    public void export(Metrics metrics) throws IOException {
+        StringBuilder out = new StringBuilder(8192);
+        
+        out.append("# HELP ").append(PREFIX).append("resolution_seconds Player spawn lookups by the tier that answered\n");
+        out.append("# TYPE ").append(PREFIX).append("resolution_seconds histogram\n");
+        for (ResolutionTier tier : ResolutionTier.values()) {
+            LatencyHistogram timer = metrics.getResolution(tier);
+            appendHistogram(out, "resolution_seconds", "tier=\"" + timer.getName() + "\"", timer);
+        }
+        
+        for (LatencyHistogram timer : metrics.getTimers()) {
+            String name = timer.getName() + "_seconds";
+            out.append("# TYPE ").append(PREFIX).append(name).append(" histogram\n");
+            appendHistogram(out, name, null, timer);
+        }
+        
+        for (Metrics.Gauge gauge : metrics.getGauges()) {
+            out.append("# TYPE ").append(PREFIX).append(gauge.getName()).append(" gauge\n");
+            out.append(PREFIX).append(gauge.getName()).append(' ').append(format(gauge.getValue())).append('\n');
+        }
+        
+        // Scrapers must never see a half-written file
+        FileUtils.writeAtomically(file, out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static void appendHistogram(StringBuilder out, String name, String labels, LatencyHistogram timer) {
+        String labelPrefix = labels == null ? "" : labels + ",";
+        long[] buckets = timer.getBuckets();
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length - 1; i++) {
+            cumulative += buckets[i];
+            // Skip leading empty buckets, they carry no information
+            if (cumulative == 0) {
+                continue;
+            }
+            out.append(PREFIX).append(name).append("_bucket{").append(labelPrefix)
+                    .append("le=\"").append(format(LatencyHistogram.getUpperBound(i) / 1e9)).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        cumulative += buckets[buckets.length - 1];
+        out.append(PREFIX).append(name).append("_bucket{").append(labelPrefix).append("le=\"+Inf\"} ")
+                .append(cumulative).append('\n');
+        
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        out.append(PREFIX).append(name).append("_sum").append(suffix).append(' ')
+                .append(format(timer.getSum() / 1e9)).append('\n');
+        out.append(PREFIX).append(name).append("_count").append(suffix).append(' ')
+                .append(cumulative).append('\n');
+    }
+    
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,12 @@
+package cn.ningmo.playerspawn.metrics;
+
+/**
+ * The tier that answered a player spawn lookup
+ */
+public enum ResolutionTier {
+    PLAYER,
+    GROUP,
+    FLOODGATE,
+    DEFAULT,
+    NONE
+}
\ No newline at end of file
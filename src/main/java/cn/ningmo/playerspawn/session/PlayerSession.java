@@ -0,0 +1,190 @@
+package cn.ningmo.playerspawn.session;
+
+import cn.ningmo.playerspawn.config.SpawnIndex;
+import cn.ningmo.playerspawn.config.SpawnIndex.GroupSpawn;
+import cn.ningmo.playerspawn.storage.LogoutLocationStore.LogoutLocation;
+import org.bukkit.Location;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * State of an online player that is resolved once at join instead of on every event.
+ * Resolved spawns are kept per world until the player's spawns, groups or the spawn index change.
+ * Final respawn locations are kept as well, so repeated deaths in a world take no resolution at all.
+ */
+public final class PlayerSession {
+    // Key of the server-wide lookup, world names are never empty
+    private static final String SERVER_KEY = "";
+    
+    private final UUID playerUUID;
+    private final boolean floodgate;
+    private final boolean firstJoin;
+    private final Map<String, SpawnResolution> spawns = new ConcurrentHashMap<>();
+    private final Map<String, SpawnResolution> respawns = new ConcurrentHashMap<>();
+    private final Map<String, RespawnMemo> respawnLocations = new ConcurrentHashMap<>();
+    private volatile LogoutLocation logoutLocation;
+    // What the cached resolutions were computed from, swapped as a whole so checking it takes no lock
+    private volatile Source source;
+    
+    PlayerSession(UUID playerUUID, boolean floodgate, boolean firstJoin, LogoutLocation logoutLocation) {
+        this.playerUUID = playerUUID;
+        this.floodgate = floodgate;
+        this.firstJoin = firstJoin;
+        this.logoutLocation = logoutLocation;
+    }
+    
+    public UUID getPlayerUUID() {
+        return playerUUID;
+    }
+    
+    /**
+     * Check whether the player joined through Floodgate (Bedrock), including linked accounts
+     * @return True if the player is a Floodgate player
+     */
+    public boolean isFloodgate() {
+        return floodgate;
+    }
+    
+    /**
+     * Check whether this session is the player's first time on the server
+     * @return True if the player had not played before
+     */
+    public boolean isFirstJoin() {
+        return firstJoin;
+    }
+    
+    /**
+     * Get the logout location the player had when the session was opened
+     * @return The logout location, or null if none was saved or it was used
+     */
+    public LogoutLocation getLogoutLocation() {
+        return logoutLocation;
+    }
+    
+    /**
+     * Forget the logout location once it was used
+     */
+    public void clearLogoutLocation() {
+        logoutLocation = null;
+    }
+    
+    /**
+     * Drop the cached resolutions if what they were computed from changed.
+     * Concurrent callers may both clear the caches, which only costs a second resolution.
+     * @param index The current spawn index
+     * @param groups The player's current groups
+     */
+    public void validate(SpawnIndex index, List<GroupSpawn> groups) {
+        Source current = source;
+        if (current != null && current.index == index && Objects.equals(current.groups, groups)) {
+            return;
+        }
+        spawns.clear();
+        respawns.clear();
+        respawnLocations.clear();
+        source = new Source(index, groups);
+    }
+    
+    /**
+     * Get the resolved spawn of a world, resolving it on the first lookup since {@link #validate} dropped it
+     * @param worldName The world name (null for server spawn)
+     * @param resolver Resolves the spawn of a world name (null for server spawn)
+     * @return The resolution
+     */
+    public SpawnResolution getSpawn(String worldName, Function<String, SpawnResolution> resolver) {
+        return lookup(spawns, worldName, resolver);
+    }
+    
+    /**
+     * Get the resolved respawn of a world, resolving it on the first lookup since {@link #validate} dropped it
+     * @param worldName The world name (null for server spawn)
+     * @param resolver Resolves the respawn of a world name (null for server spawn)
+     * @return The resolution
+     */
+    public SpawnResolution getRespawn(String worldName, Function<String, SpawnResolution> resolver) {
+        return lookup(respawns, worldName, resolver);
+    }
+    
+    /**
+     * Get the final respawn location of a world, resolving it unless the one kept for the world is still current.
+     * A location is kept only if it was resolved from the current source and safe spawn generation, so one
+     * resolved while either changed is never returned.
+     * @param worldName The world name (null for server spawn)
+     * @param generation The safe spawn generation, read before resolving
+     * @param resolver Resolves the respawn location of a world name (null for server spawn)
+     * @param fixed Tells whether a resolved location is the same on every death, so it may be kept
+     * @return A location the caller may change, or null if no respawn applies
+     */
+    public Location getRespawnLocation(String worldName, long generation, Function<String, Location> resolver,
+                                       Predicate<Location> fixed) {
+        String key = worldName != null ? worldName : SERVER_KEY;
+        Source current = source;
+        RespawnMemo memo = respawnLocations.get(key);
+        if (memo != null && memo.source == current && memo.generation == generation
+                && memo.location.isWorldLoaded()) {
+            return memo.location.clone();
+        }
+        
+        Location location = resolver.apply(worldName);
+        if (location != null && current != null && fixed.test(location)) {
+            respawnLocations.put(key, new RespawnMemo(current, generation, location.clone()));
+        }
+        return location;
+    }
+    
+    /**
+     * Drop the cached resolutions, for example after the player's spawns changed
+     */
+    public void invalidate() {
+        spawns.clear();
+        respawns.clear();
+        respawnLocations.clear();
+        // Locations still being resolved from the old spawns are not kept
+        source = null;
+    }
+    
+    private static SpawnResolution lookup(Map<String, SpawnResolution> cache, String worldName,
+                                          Function<String, SpawnResolution> resolver) {
+        String key = worldName != null ? worldName : SERVER_KEY;
+        SpawnResolution resolution = cache.get(key);
+        if (resolution == null) {
+            resolution = resolver.apply(worldName);
+            cache.put(key, resolution);
+        }
+        return resolution;
+    }
+    
+    /**
+     * A final respawn location and what it was resolved from
+     */
+    private static final class RespawnMemo {
+        private final Source source;
+        private final long generation;
+        private final Location location;
+        
+        private RespawnMemo(Source source, long generation, Location location) {
+            this.source = source;
+            this.generation = generation;
+            this.location = location;
+        }
+    }
+    
+    /**
+     * The spawn index and groups the cached resolutions were computed from
+     */
+    private static final class Source {
+        private final SpawnIndex index;
+        private final List<GroupSpawn> groups;
+        
+        private Source(SpawnIndex index, List<GroupSpawn> groups) {
+            this.index = index;
+            this.groups = groups;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,226 @@
+package cn.ningmo.playerspawn.session;
+
+import cn.ningmo.playerspawn.storage.LogoutLocationStore;
+import cn.ningmo.playerspawn.storage.LogoutLocationStore.LogoutLocation;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.geysermc.floodgate.api.FloodgateApi;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Registry of the sessions of online players, opened before any other join handler and closed after quit.
+ * What a session needs from storage and other plugins is staged during the async pre-login,
+ * so opening it on join only takes the staged record.
+ */
+public class PlayerSessionManager implements Listener {
+    // Staged logins not joined within this time were denied later, their preloaded data is released
+    private static final long STAGE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, StagedLogin> staged = new ConcurrentHashMap<>();
+    private volatile boolean floodgateEnabled;
+    private volatile LogoutLocationStore logoutLocationStore;
+    private volatile Consumer<UUID> onStageExpired = playerUUID -> { };
+    
+    /**
+     * Set whether Floodgate is installed, only then is its API asked
+     * @param floodgateEnabled Whether the Floodgate plugin is enabled
+     */
+    public void setFloodgateEnabled(boolean floodgateEnabled) {
+        this.floodgateEnabled = floodgateEnabled;
+    }
+    
+    /**
+     * Set where the logout location of joining players is read from
+     * @param logoutLocationStore The logout location store
+     */
+    public void setLogoutLocationStore(LogoutLocationStore logoutLocationStore) {
+        this.logoutLocationStore = logoutLocationStore;
+    }
+    
+    /**
+     * Set what releases the data preloaded for a staged login that never joined
+     * @param onStageExpired Called with the player's UUID, off the main thread
+     */
+    public void setOnStageExpired(Consumer<UUID> onStageExpired) {
+        this.onStageExpired = onStageExpired;
+    }
+    
+    /**
+     * Read what the session of a joining player needs, called during the async pre-login after the stores
+     * preloaded the player. The join then opens the session without touching storage or other plugins.
+     * @param playerUUID The player's UUID
+     */
+    public void stage(UUID playerUUID) {
+        long now = System.currentTimeMillis();
+        expireStaged(now);
+        
+        LogoutLocationStore logoutLocations = logoutLocationStore;
+        staged.put(playerUUID, new StagedLogin(isFloodgatePlayer(playerUUID),
+                !Bukkit.getOfflinePlayer(playerUUID).hasPlayedBefore(),
+                logoutLocations != null ? logoutLocations.get(playerUUID) : null, now));
+    }
+    
+    /**
+     * Get the session of a player
+     * @param player The player
+     * @return The session; a throwaway session if the player is not online
+     */
+    public PlayerSession get(Player player) {
+        PlayerSession session = sessions.get(player.getUniqueId());
+        if (session != null) {
+            return session;
+        }
+        
+        // Online before the plugin was enabled, or asked for before the join event
+        if (player.isOnline()) {
+            return sessions.computeIfAbsent(player.getUniqueId(), uuid -> create(player));
+        }
+        return create(player);
+    }
+    
+    /**
+     * Open the session of a player who is about to join, for handlers that run before the join event
+     * @param player The player
+     * @return The session, kept by the join
+     */
+    public PlayerSession openBeforeJoin(Player player) {
+        PlayerSession session = open(player);
+        sessions.put(player.getUniqueId(), session);
+        return session;
+    }
+    
+    /**
+     * Open sessions for players that are already online
+     * @param players The online players
+     */
+    public void openAll(Collection<? extends Player> players) {
+        for (Player player : players) {
+            sessions.computeIfAbsent(player.getUniqueId(), uuid -> create(player));
+        }
+    }
+    
+    /**
+     * Drop the resolved spawns of a player, after their spawns changed
+     * @param playerUUID The player's UUID
+     */
+    public void invalidate(UUID playerUUID) {
+        PlayerSession session = sessions.get(playerUUID);
+        if (session != null) {
+            session.invalidate();
+        }
+    }
+    
+    /**
+     * Drop the resolved spawns of all players
+     */
+    public void invalidateAll() {
+        for (PlayerSession session : sessions.values()) {
+            session.invalidate();
+        }
+    }
+    
+    /**
+     * Get the number of open sessions
+     * @return The session count
+     */
+    public int size() {
+        return sessions.size();
+    }
+    
+    /**
+     * Get the number of logins staged and not yet joined
+     * @return The staged login count
+     */
+    public int getStagedCount() {
+        return staged.size();
+    }
+    
+    /**
+     * Open the session of a joining player from their staged login, or read it now if none was staged
+     * @param player The player
+     * @return The session
+     */
+    private PlayerSession open(Player player) {
+        StagedLogin login = staged.remove(player.getUniqueId());
+        if (login == null || System.currentTimeMillis() - login.stagedAt > STAGE_TTL_MILLIS) {
+            return create(player);
+        }
+        return new PlayerSession(player.getUniqueId(), login.floodgate, login.firstJoin, login.logoutLocation);
+    }
+    
+    private PlayerSession create(Player player) {
+        LogoutLocationStore logoutLocations = logoutLocationStore;
+        return new PlayerSession(player.getUniqueId(), isFloodgatePlayer(player.getUniqueId()),
+                !player.hasPlayedBefore(), logoutLocations != null ? logoutLocations.get(player.getUniqueId()) : null);
+    }
+    
+    /**
+     * Drop staged logins that never joined and release what was preloaded for them
+     * @param now The current time in milliseconds
+     */
+    private void expireStaged(long now) {
+        for (Map.Entry<UUID, StagedLogin> entry : staged.entrySet()) {
+            // A player who is online again still needs their data
+            if (now - entry.getValue().stagedAt > STAGE_TTL_MILLIS && staged.remove(entry.getKey(), entry.getValue())
+                    && !sessions.containsKey(entry.getKey())) {
+                onStageExpired.accept(entry.getKey());
+            }
+        }
+    }
+    
+    private boolean isFloodgatePlayer(UUID playerUUID) {
+        // The Floodgate classes are only touched when the plugin is installed
+        return floodgateEnabled && FloodgateHook.isFloodgatePlayer(playerUUID);
+    }
+    
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        // Already opened if the spawn location event was fired for this login
+        sessions.computeIfAbsent(player.getUniqueId(), uuid -> open(player));
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        sessions.remove(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * What was read for a joining player during the async pre-login
+     */
+    private static final class StagedLogin {
+        private final boolean floodgate;
+        private final boolean firstJoin;
+        private final LogoutLocation logoutLocation;
+        private final long stagedAt;
+        
+        private StagedLogin(boolean floodgate, boolean firstJoin, LogoutLocation logoutLocation, long stagedAt) {
+            this.floodgate = floodgate;
+            this.firstJoin = firstJoin;
+            this.logoutLocation = logoutLocation;
+            this.stagedAt = stagedAt;
+        }
+    }
+    
+    /**
+     * Calls into the Floodgate API, loaded only when Floodgate is installed
+     */
+    private static final class FloodgateHook {
+        private static boolean isFloodgatePlayer(UUID playerUUID) {
+            FloodgateApi api = FloodgateApi.getInstance();
+            return api != null && api.isFloodgatePlayer(playerUUID);
+        }
+    }
+}
\ No newline at end of file
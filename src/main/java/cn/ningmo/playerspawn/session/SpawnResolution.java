@@ -0,0 +1,58 @@
+package cn.ningmo.playerspawn.session;
+
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.metrics.ResolutionTier;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The spawn points a lookup resolved to, before players are placed on them.
+ * Spread spawns are placed on every use, so only the choice of spawn point is cached.
+ */
+public final class SpawnResolution {
+    /**
+     * No spawn point applies
+     */
+    public static final SpawnResolution NONE = new SpawnResolution(ResolutionTier.NONE, Collections.emptyList());
+    
+    private final ResolutionTier tier;
+    private final List<SpawnPoint> candidates;
+    private final boolean fixed;
+    
+    private SpawnResolution(ResolutionTier tier, List<SpawnPoint> candidates) {
+        this.tier = tier;
+        this.candidates = candidates;
+        this.fixed = candidates.stream().allMatch(point -> point.getSpread() == null);
+    }
+    
+    /**
+     * Create a resolution
+     * @param tier The tier that answered
+     * @param candidates The spawn points to try in order, the first one whose world is loaded is used
+     * @return The resolution, or {@link #NONE} without candidates
+     */
+    public static SpawnResolution of(ResolutionTier tier, SpawnPoint... candidates) {
+        if (candidates.length == 0) {
+            return NONE;
+        }
+        return new SpawnResolution(tier, Collections.unmodifiableList(Arrays.asList(candidates.clone())));
+    }
+    
+    public ResolutionTier getTier() {
+        return tier;
+    }
+    
+    public List<SpawnPoint> getCandidates() {
+        return candidates;
+    }
+    
+    /**
+     * Check whether players are always placed on the same spot, which is not the case for spread spawns
+     * @return True if no candidate is spread
+     */
+    public boolean isFixed() {
+        return fixed;
+    }
+}
\ No newline at end of file
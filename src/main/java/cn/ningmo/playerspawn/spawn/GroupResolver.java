@@ -0,0 +1,104 @@
+package cn.ningmo.playerspawn.spawn;
+
+import cn.ningmo.playerspawn.config.SpawnIndex;
+import cn.ningmo.playerspawn.config.SpawnIndex.GroupSpawn;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches which spawn groups each online player belongs to.
+ * Membership is checked once per player and spawn index, instead of one permission check per group per lookup.
+ */
+public class GroupResolver {
+    private final Map<UUID, Membership> memberships = new ConcurrentHashMap<>();
+    private volatile long refreshMillis;
+    
+    /**
+     * Set how long a cached membership stays valid, to pick up permission changes
+     * @param refreshMillis The refresh interval in milliseconds, 0 to only refresh on invalidation
+     */
+    public void setRefreshInterval(long refreshMillis) {
+        this.refreshMillis = Math.max(0, refreshMillis);
+    }
+    
+    /**
+     * Get the spawn groups of a player, in priority order
+     * @param player The player
+     * @param index The current spawn index
+     * @return The groups the player has permission for
+     */
+    public List<GroupSpawn> getGroups(Player player, SpawnIndex index) {
+        Membership membership = memberships.get(player.getUniqueId());
+        if (membership == null || !membership.isValid(index, refreshMillis)) {
+            membership = compute(player, index);
+            memberships.put(player.getUniqueId(), membership);
+        }
+        return membership.groups;
+    }
+    
+    /**
+     * Recompute a player's groups now, for example on join
+     * @param player The player
+     * @param index The current spawn index
+     */
+    public void refresh(Player player, SpawnIndex index) {
+        memberships.put(player.getUniqueId(), compute(player, index));
+    }
+    
+    /**
+     * Forget a player's groups
+     * @param playerUUID The player's UUID
+     */
+    public void invalidate(UUID playerUUID) {
+        memberships.remove(playerUUID);
+    }
+    
+    /**
+     * Forget the groups of all players
+     */
+    public void invalidateAll() {
+        memberships.clear();
+    }
+    
+    private static Membership compute(Player player, SpawnIndex index) {
+        List<GroupSpawn> groups = null;
+        for (GroupSpawn group : index.getGroups()) {
+            if (player.hasPermission(group.getPermission())) {
+                if (groups == null) {
+                    groups = new ArrayList<>(2);
+                }
+                groups.add(group);
+            }
+        }
+        return new Membership(index, groups == null ? Collections.emptyList() : Collections.unmodifiableList(groups));
+    }
+    
+    /**
+     * Groups of one player, tied to the spawn index they were computed from
+     */
+    private static final class Membership {
+        private final SpawnIndex index;
+        private final List<GroupSpawn> groups;
+        private final long computedAt;
+        
+        private Membership(SpawnIndex index, List<GroupSpawn> groups) {
+            this.index = index;
+            this.groups = groups;
+            this.computedAt = System.currentTimeMillis();
+        }
+        
+        private boolean isValid(SpawnIndex current, long refreshMillis) {
+            // A new index means a reload or a group spawn change
+            if (index != current) {
+                return false;
+            }
+            return refreshMillis == 0 || System.currentTimeMillis() - computedAt < refreshMillis;
+        }
+    }
+}
\ No newline at end of file
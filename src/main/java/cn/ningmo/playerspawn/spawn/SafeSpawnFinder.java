@@ -0,0 +1,404 @@
+package cn.ningmo.playerspawn.spawn;
+
+import cn.ningmo.playerspawn.utils.SchedulerUtils;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves spawn targets to the nearest safe standing spot.
+ * Results are cached per target and dropped when a block changes in any chunk their search read,
+ * so a spawn is only searched again after the terrain around it changed.
+ */
+public class SafeSpawnFinder implements Listener {
+    // Ground a player must not stand on
+    private static final Set<Material> UNSAFE_GROUND = EnumSet.of(
+            Material.LAVA, Material.MAGMA_BLOCK, Material.CACTUS, Material.CAMPFIRE, Material.SOUL_CAMPFIRE,
+            Material.FIRE, Material.SOUL_FIRE, Material.SWEET_BERRY_BUSH, Material.WITHER_ROSE, Material.POWDER_SNOW);
+    // Blocks a player must not stand in
+    private static final Set<Material> UNSAFE_BODY = EnumSet.of(
+            Material.LAVA, Material.FIRE, Material.SOUL_FIRE, Material.SWEET_BERRY_BUSH, Material.WITHER_ROSE,
+            Material.POWDER_SNOW, Material.CACTUS);
+    
+    private final Map<Target, Result> cache = new ConcurrentHashMap<>();
+    // Cached targets by the chunk their result depends on
+    private final Map<ChunkRef, Set<Target>> byChunk = new ConcurrentHashMap<>();
+    // Advanced whenever a result may differ from one returned before, for callers keeping locations made safe
+    private final AtomicLong generation = new AtomicLong();
+    // Targets returned unsearched because another thread owns their surroundings, only on Folia
+    private final Set<Target> deferred = ConcurrentHashMap.newKeySet();
+    private volatile boolean enabled;
+    private volatile int radius = 8;
+    private volatile int vertical = 16;
+    
+    /**
+     * Apply the safe_spawn settings and drop all cached results
+     * @param enabled Whether spawn targets are checked
+     * @param radius The horizontal search radius in blocks
+     * @param vertical The vertical search range in blocks, up and down
+     */
+    public void configure(boolean enabled, int radius, int vertical) {
+        this.enabled = enabled;
+        this.radius = Math.max(0, radius);
+        this.vertical = Math.max(0, vertical);
+        invalidateAll();
+    }
+    
+    /**
+     * Get a safe location for a spawn target.
+     * On Folia a target whose surroundings belong to another region is only moved if a cached result exists.
+     * @param target The spawn target (may be null)
+     * @return The target if it is safe, the nearest safe spot around it, or the target itself if none was found
+     */
+    public Location makeSafe(Location target) {
+        if (!enabled || target == null || target.getWorld() == null) {
+            return target;
+        }
+        
+        Target key = new Target(target.getWorld().getUID(), target.getBlockX(), target.getBlockY(), target.getBlockZ());
+        Result result = cache.get(key);
+        if (result == null) {
+            if (!canSearch(target.getWorld(), key.x, key.z)) {
+                // The target may still be moved once it is searched, only this target is marked for that
+                deferred.add(key);
+                return target;
+            }
+            result = search(target);
+            cache.put(key, result);
+            track(key);
+            deferred.remove(key);
+        }
+        
+        if (!result.found || result.unchanged) {
+            return target;
+        }
+        return new Location(target.getWorld(), result.x + 0.5, result.y, result.z + 0.5,
+                target.getYaw(), target.getPitch());
+    }
+    
+    /**
+     * Drop every cached result
+     */
+    public void invalidateAll() {
+        cache.clear();
+        byChunk.clear();
+        deferred.clear();
+        generation.incrementAndGet();
+    }
+    
+    /**
+     * Check whether a location returned by {@link #makeSafe} is final, rather than a target returned as is
+     * because its surroundings could not be searched on the calling thread
+     * @param location The returned location (may be null)
+     * @return True if searching later cannot move it
+     */
+    public boolean isFinal(Location location) {
+        if (deferred.isEmpty() || location == null || location.getWorld() == null) {
+            return true;
+        }
+        return !deferred.contains(new Target(location.getWorld().getUID(), location.getBlockX(),
+                location.getBlockY(), location.getBlockZ()));
+    }
+    
+    /**
+     * Get the generation of the results. Locations made safe are only current while it has not changed,
+     * it advances when cached results are dropped.
+     * @return The generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+    
+    /**
+     * Get the number of cached results
+     * @return The cache size
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+    
+    /**
+     * Check if the blocks within the search radius of a target may be read on this thread
+     */
+    private boolean canSearch(World world, int x, int z) {
+        int minX = (x - radius) >> 4;
+        int maxX = (x + radius) >> 4;
+        int minZ = (z - radius) >> 4;
+        int maxZ = (z + radius) >> 4;
+        return SchedulerUtils.isOwnedByCurrentThread(world, minX, minZ)
+                && SchedulerUtils.isOwnedByCurrentThread(world, maxX, maxZ)
+                && SchedulerUtils.isOwnedByCurrentThread(world, minX, maxZ)
+                && SchedulerUtils.isOwnedByCurrentThread(world, maxX, minZ);
+    }
+    
+    /**
+     * Search outward from the target, ring by ring, for a column with a safe standing spot
+     * @param target The spawn target
+     * @return The search result
+     */
+    private Result search(Location target) {
+        World world = target.getWorld();
+        int baseX = target.getBlockX();
+        int baseY = target.getBlockY();
+        int baseZ = target.getBlockZ();
+        
+        if (isSafe(world, baseX, baseY, baseZ)) {
+            return new Result(true, true, baseX, baseY, baseZ);
+        }
+        
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                for (int dz = -ring; dz <= ring; dz++) {
+                    // Only the border of the ring, inner columns were checked already
+                    if (Math.abs(dx) != ring && Math.abs(dz) != ring) {
+                        continue;
+                    }
+                    int y = findInColumn(world, baseX + dx, baseY, baseZ + dz);
+                    if (y != Integer.MIN_VALUE) {
+                        return new Result(true, false, baseX + dx, y, baseZ + dz);
+                    }
+                }
+            }
+        }
+        
+        // Nothing safe nearby
+        return new Result(false, false, baseX, baseY, baseZ);
+    }
+    
+    /**
+     * Find the safe standing height in a column closest to a base height
+     * @return The feet height, or Integer.MIN_VALUE if the column has none
+     */
+    private int findInColumn(World world, int x, int baseY, int z) {
+        int minY = Math.max(world.getMinHeight() + 1, baseY - vertical);
+        int maxY = Math.min(world.getMaxHeight() - 2, baseY + vertical);
+        for (int offset = 0; offset <= vertical; offset++) {
+            int up = baseY + offset;
+            if (up <= maxY && up >= minY && isSafe(world, x, up, z)) {
+                return up;
+            }
+            int down = baseY - offset;
+            if (offset > 0 && down >= minY && down <= maxY && isSafe(world, x, down, z)) {
+                return down;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+    
+    private static boolean isSafe(World world, int x, int y, int z) {
+        if (y <= world.getMinHeight() || y >= world.getMaxHeight() - 1) {
+            return false;
+        }
+        
+        Block ground = world.getBlockAt(x, y - 1, z);
+        if (!ground.getType().isSolid() || UNSAFE_GROUND.contains(ground.getType())) {
+            return false;
+        }
+        return isFree(world.getBlockAt(x, y, z)) && isFree(world.getBlockAt(x, y + 1, z));
+    }
+    
+    private static boolean isFree(Block block) {
+        return block.isPassable() && !block.isLiquid() && !UNSAFE_BODY.contains(block.getType());
+    }
+    
+    /**
+     * Register a cached result under every chunk its search read, so a change in any of them drops it
+     * @param key The searched target
+     */
+    private void track(Target key) {
+        int r = radius;
+        for (int chunkX = (key.x - r) >> 4; chunkX <= (key.x + r) >> 4; chunkX++) {
+            for (int chunkZ = (key.z - r) >> 4; chunkZ <= (key.z + r) >> 4; chunkZ++) {
+                byChunk.computeIfAbsent(new ChunkRef(key.world, chunkX, chunkZ),
+                        ref -> ConcurrentHashMap.newKeySet()).add(key);
+            }
+        }
+    }
+    
+    /**
+     * Drop the cached results whose search read the chunk of a changed block
+     * @param block The changed block
+     */
+    private void invalidate(Block block) {
+        if (byChunk.isEmpty()) {
+            return;
+        }
+        
+        ChunkRef chunk = new ChunkRef(block.getWorld().getUID(), block.getX() >> 4, block.getZ() >> 4);
+        Set<Target> targets = byChunk.remove(chunk);
+        if (targets != null) {
+            for (Target target : targets) {
+                cache.remove(target);
+            }
+            generation.incrementAndGet();
+        }
+    }
+    
+    private void invalidate(List<Block> blocks) {
+        for (Block block : blocks) {
+            invalidate(block);
+        }
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        invalidate(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        invalidate(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        invalidate(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        invalidate(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        invalidate(event.getBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        invalidate(event.getToBlock());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        invalidate(event.getBlock());
+        invalidate(event.getBlocks());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        invalidate(event.getBlock());
+        invalidate(event.getBlocks());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        invalidate(event.blockList());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        invalidate(event.blockList());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        UUID world = event.getWorld().getUID();
+        cache.keySet().removeIf(target -> target.world.equals(world));
+        byChunk.keySet().removeIf(ref -> ref.world.equals(world));
+        deferred.removeIf(target -> target.world.equals(world));
+        generation.incrementAndGet();
+    }
+    
+    /**
+     * A spawn target block
+     */
+    private static final class Target {
+        private final UUID world;
+        private final int x;
+        private final int y;
+        private final int z;
+        
+        private Target(UUID world, int x, int y, int z) {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Target)) return false;
+            Target other = (Target) o;
+            return x == other.x && y == other.y && z == other.z && world.equals(other.world);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, x, y, z);
+        }
+    }
+    
+    /**
+     * A chunk of a world
+     */
+    private static final class ChunkRef {
+        private final UUID world;
+        private final int x;
+        private final int z;
+        
+        private ChunkRef(UUID world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ChunkRef)) return false;
+            ChunkRef other = (ChunkRef) o;
+            return x == other.x && z == other.z && world.equals(other.world);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(world, x, z);
+        }
+    }
+    
+    /**
+     * The outcome of a search for one target
+     */
+    private static final class Result {
+        private final boolean found;
+        private final boolean unchanged;
+        private final int x;
+        private final int y;
+        private final int z;
+        
+        private Result(boolean found, boolean unchanged, int x, int y, int z) {
+            this.found = found;
+            this.unchanged = unchanged;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+}
\ No newline at end of file
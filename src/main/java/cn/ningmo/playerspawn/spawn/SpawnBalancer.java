@@ -0,0 +1,197 @@
+package cn.ningmo.playerspawn.spawn;
+
+import cn.ningmo.playerspawn.config.SpawnIndex;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.config.SpawnSpread;
+import cn.ningmo.playerspawn.utils.SchedulerUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Places players on the candidates of spread spawns and tracks who is still near the candidate they got.
+ * Only placed players are tracked, so the load stays correct without scanning entities.
+ */
+public class SpawnBalancer implements Listener {
+    // Time a placed player has to arrive before distance checks apply, covers the join teleport delay
+    private static final long ARRIVAL_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    
+    private final Plugin plugin;
+    private final Map<UUID, Assignment> assignments = new ConcurrentHashMap<>();
+    private volatile double radiusSquared = 16 * 16;
+    
+    public SpawnBalancer(Plugin plugin) {
+        this.plugin = plugin;
+    }
+    
+    /**
+     * Set the distance within which a player counts as near a spawn point
+     * @param radius The radius in blocks
+     */
+    public void setRadius(double radius) {
+        this.radiusSquared = radius * radius;
+    }
+    
+    /**
+     * Get the location to send a player to for a spawn point, picking a candidate if the spawn is spread
+     * @param point The spawn point
+     * @param player The player, or null to pick a candidate without counting anyone on it
+     * @return The location, or null if the world is not loaded
+     */
+    public Location place(SpawnPoint point, Player player) {
+        SpawnSpread spread = point.getSpread();
+        if (spread == null) {
+            return point.toLocation();
+        }
+        
+        if (player == null) {
+            return peek(point);
+        }
+        
+        int index = spread.acquire();
+        Location location = spread.getPoint(index).toLocation();
+        if (location == null) {
+            spread.release(index);
+            return null;
+        }
+        
+        // A player only counts on the candidate they were placed on last
+        Assignment previous = assignments.put(player.getUniqueId(), new Assignment(spread, index));
+        if (previous != null) {
+            previous.release();
+        }
+        return location;
+    }
+    
+    /**
+     * Get a location for a spawn point without counting anyone on it, for lookups that do not move a player
+     * @param point The spawn point
+     * @return The location, or null if the world is not loaded
+     */
+    public Location peek(SpawnPoint point) {
+        SpawnSpread spread = point.getSpread();
+        if (spread == null) {
+            return point.toLocation();
+        }
+        return spread.getPoint(spread.select()).toLocation();
+    }
+    
+    /**
+     * Stop counting a player on their spawn point
+     * @param playerUUID The player's UUID
+     */
+    public void release(UUID playerUUID) {
+        Assignment assignment = assignments.remove(playerUUID);
+        if (assignment != null) {
+            assignment.release();
+        }
+    }
+    
+    /**
+     * Release players who moved away from their spawn point. Runs periodically on the global thread,
+     * each player's location is checked on the thread owning the player.
+     */
+    public void check() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<UUID, Assignment> entry : assignments.entrySet()) {
+            UUID playerUUID = entry.getKey();
+            Assignment assignment = entry.getValue();
+            if (now - assignment.placedAt < ARRIVAL_GRACE_MILLIS) {
+                continue;
+            }
+            
+            Player player = Bukkit.getPlayer(playerUUID);
+            if (player == null) {
+                release(playerUUID, assignment);
+                continue;
+            }
+            SchedulerUtils.runForEntity(plugin, player, () -> {
+                if (!assignment.isNear(player.getLocation(), radiusSquared)) {
+                    release(playerUUID, assignment);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Stop counting a player on a spawn point, unless they were placed again since
+     */
+    private void release(UUID playerUUID, Assignment assignment) {
+        if (assignments.remove(playerUUID, assignment)) {
+            assignment.release();
+        }
+    }
+    
+    /**
+     * Keep the placements on spreads the spawn index still holds and forget the rest.
+     * Unchanged config sections keep their spreads across a rebuild, so their counts must stay in step
+     * with the tracked players; dropped spreads are released so nothing refers to them any longer.
+     * @param index The new spawn index
+     */
+    public void retain(SpawnIndex index) {
+        Set<SpawnPoint> points = Collections.newSetFromMap(new IdentityHashMap<>());
+        points.addAll(index.getSpawnPoints());
+        for (Map.Entry<UUID, Assignment> entry : assignments.entrySet()) {
+            Assignment assignment = entry.getValue();
+            if (!points.contains(assignment.spread.getPoint(assignment.index))
+                    && assignments.remove(entry.getKey(), assignment)) {
+                assignment.release();
+            }
+        }
+    }
+    
+    /**
+     * Get the number of players currently counted on a spread spawn
+     * @return The number of tracked players
+     */
+    public int getTrackedCount() {
+        return assignments.size();
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        release(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * A player counted on one candidate of a spread
+     */
+    private static final class Assignment {
+        private final SpawnSpread spread;
+        private final int index;
+        private final long placedAt;
+        
+        private Assignment(SpawnSpread spread, int index) {
+            this.spread = spread;
+            this.index = index;
+            this.placedAt = System.currentTimeMillis();
+        }
+        
+        private boolean isNear(Location location, double radiusSquared) {
+            SpawnPoint point = spread.getPoint(index);
+            if (location.getWorld() == null || !location.getWorld().getName().equals(point.getWorldName())) {
+                return false;
+            }
+            double dx = location.getX() - point.getX();
+            double dz = location.getZ() - point.getZ();
+            return dx * dx + dz * dz <= radiusSquared;
+        }
+        
+        private void release() {
+            spread.release(index);
+        }
+    }
+}
\ No newline at end of file
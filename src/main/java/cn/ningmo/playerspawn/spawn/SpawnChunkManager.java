@@ -0,0 +1,170 @@
+package cn.ningmo.playerspawn.spawn;
+
+import cn.ningmo.playerspawn.config.SpawnIndex;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.utils.SchedulerUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the chunks around all shared spawn points loaded with plugin chunk tickets.
+ * Tickets are diffed against the previous spawn set, so only added or removed spawns touch chunks.
+ * The bookkeeping stays on the global thread; on Folia each ticket change runs on the region owning its chunk.
+ */
+public class SpawnChunkManager implements Listener {
+    private final Plugin plugin;
+    // Wanted chunks per world name, recomputed from the spawn index
+    private Map<String, Set<Long>> wanted = Collections.emptyMap();
+    // Chunks we currently hold a ticket for, per world name
+    private final Map<String, Set<Long>> ticketed = new HashMap<>();
+    private boolean enabled;
+    private int radius;
+    
+    public SpawnChunkManager(Plugin plugin) {
+        this.plugin = plugin;
+    }
+    
+    /**
+     * Apply the spawn_chunks settings
+     * @param enabled Whether spawn chunks are kept loaded
+     * @param radius The radius in chunks around each spawn point
+     */
+    public void configure(boolean enabled, int radius) {
+        this.enabled = enabled;
+        this.radius = Math.max(0, radius);
+    }
+    
+    /**
+     * Recompute the wanted chunks from a spawn index and update the tickets. Must run on the global thread.
+     * @param index The spawn index
+     */
+    public void update(SpawnIndex index) {
+        Map<String, Set<Long>> chunks = new HashMap<>();
+        if (enabled) {
+            for (SpawnPoint point : index.getSpawnPoints()) {
+                if (point.getWorldName() == null) {
+                    continue;
+                }
+                
+                Set<Long> worldChunks = chunks.computeIfAbsent(point.getWorldName(), name -> new HashSet<>());
+                int centerX = (int) Math.floor(point.getX()) >> 4;
+                int centerZ = (int) Math.floor(point.getZ()) >> 4;
+                for (int x = centerX - radius; x <= centerX + radius; x++) {
+                    for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                        worldChunks.add(chunkKey(x, z));
+                    }
+                }
+            }
+        }
+        wanted = chunks;
+        
+        // Release worlds that no longer have any spawn
+        for (String worldName : new HashSet<>(ticketed.keySet())) {
+            if (!chunks.containsKey(worldName)) {
+                World world = Bukkit.getWorld(worldName);
+                if (world != null) {
+                    apply(world);
+                } else {
+                    ticketed.remove(worldName);
+                }
+            }
+        }
+        
+        for (String worldName : chunks.keySet()) {
+            World world = Bukkit.getWorld(worldName);
+            if (world != null) {
+                apply(world);
+            }
+        }
+    }
+    
+    /**
+     * Release every ticket held by this manager
+     */
+    public void releaseAll() {
+        for (World world : Bukkit.getWorlds()) {
+            world.removePluginChunkTickets(plugin);
+        }
+        ticketed.clear();
+    }
+    
+    /**
+     * Get the number of chunks currently held loaded
+     * @return The number of ticketed chunks
+     */
+    public int getTicketCount() {
+        int count = 0;
+        for (Set<Long> chunks : ticketed.values()) {
+            count += chunks.size();
+        }
+        return count;
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        if (wanted.containsKey(event.getWorld().getName())) {
+            apply(event.getWorld());
+        }
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        // The server drops the tickets with the world
+        ticketed.remove(event.getWorld().getName());
+    }
+    
+    /**
+     * Bring the tickets of one world in line with the wanted chunks
+     * @param world The world
+     */
+    private void apply(World world) {
+        Set<Long> target = wanted.getOrDefault(world.getName(), Collections.emptySet());
+        Set<Long> current = ticketed.computeIfAbsent(world.getName(), name -> new HashSet<>());
+        
+        current.removeIf(key -> {
+            if (target.contains(key)) {
+                return false;
+            }
+            int x = chunkX(key);
+            int z = chunkZ(key);
+            SchedulerUtils.runAtChunk(plugin, world, x, z, () -> world.removePluginChunkTicket(x, z, plugin));
+            return true;
+        });
+        
+        for (long key : target) {
+            if (current.add(key)) {
+                int x = chunkX(key);
+                int z = chunkZ(key);
+                SchedulerUtils.runAtChunk(plugin, world, x, z, () -> world.addPluginChunkTicket(x, z, plugin));
+            }
+        }
+        
+        if (current.isEmpty()) {
+            ticketed.remove(world.getName());
+        }
+    }
+    
+    private static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+    
+    private static int chunkX(long key) {
+        return (int) (key >> 32);
+    }
+    
+    private static int chunkZ(long key) {
+        return (int) key;
+    }
+}
\ No newline at end of file
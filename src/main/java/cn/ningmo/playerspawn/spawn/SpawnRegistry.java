@@ -0,0 +1,135 @@
+package cn.ningmo.playerspawn.spawn;
+
+import cn.ningmo.playerspawn.PlayerSpawn;
+import cn.ningmo.playerspawn.config.SpawnIndex;
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.storage.PlayerSpawnStore;
+import cn.ningmo.playerspawn.utils.SpawnUtils;
+import org.bukkit.Location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
+/**
+ * The one place spawns are read and written, safe to use from any thread.
+ * Reads take no lock: config spawns come from the immutable spawn index and player spawns from immutable tables.
+ * Writes copy and swap: a config spawn is edited, recompiled and published as one step, and a player's table is
+ * replaced under a lock striped by player, so concurrent writers never lose each other's changes.
+ */
+public class SpawnRegistry {
+    // Power of two, so a stripe is picked with a mask
+    private static final int STRIPES = 64;
+    
+    private final PlayerSpawn plugin;
+    private final Object[] stripes = new Object[STRIPES];
+    
+    public SpawnRegistry(PlayerSpawn plugin) {
+        this.plugin = plugin;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+    
+    /**
+     * Get the compiled config spawns
+     * @return The spawn index
+     */
+    public SpawnIndex getIndex() {
+        return plugin.getConfigManager().getSpawnIndex();
+    }
+    
+    /**
+     * Get a player's own spawns, loading them from storage if they are not cached
+     * @param playerUUID The player's UUID
+     * @return The spawn table, or null if the player has no spawn set
+     */
+    public SpawnTable getPlayerSpawns(UUID playerUUID) {
+        return plugin.getPlayerSpawnStore().get(playerUUID);
+    }
+    
+    /**
+     * Get a player's own spawn for a world, falling back to their server spawn
+     * @param playerUUID The player's UUID
+     * @param worldName The world name (null for server spawn)
+     * @return The spawn point, or null if the player has none for the world
+     */
+    public SpawnPoint getPlayerSpawn(UUID playerUUID, String worldName) {
+        SpawnTable spawns = getPlayerSpawns(playerUUID);
+        if (spawns == null) {
+            return null;
+        }
+        SpawnPoint point = spawns.getWorld(worldName);
+        return point != null ? point : spawns.getServer();
+    }
+    
+    /**
+     * Set a player's own spawn for a world
+     * @param playerUUID The player's UUID
+     * @param worldName The world name (null for server spawn)
+     * @param point The spawn point
+     */
+    public void setPlayerSpawn(UUID playerUUID, String worldName, SpawnPoint point) {
+        updatePlayerSpawns(playerUUID, spawns -> spawns.with(worldName, point));
+    }
+    
+    /**
+     * Replace a player's spawn table with a changed copy, without racing other writers of the same player
+     * @param playerUUID The player's UUID
+     * @param update Derives the new table from the current one, which is empty if the player has none
+     */
+    public void updatePlayerSpawns(UUID playerUUID, UnaryOperator<SpawnTable> update) {
+        synchronized (stripe(playerUUID)) {
+            SpawnTable spawns = getPlayerSpawns(playerUUID);
+            // Only this player's record is written
+            plugin.getPlayerSpawnStore().set(playerUUID, update.apply(spawns != null ? spawns : SpawnTable.empty()));
+        }
+        plugin.getSessionManager().invalidate(playerUUID);
+    }
+    
+    /**
+     * Replace the spawn tables of many players, each under the same lock as single writes, for bulk imports.
+     * Tables are read without caching them, as imports touch mostly offline players.
+     * @param updates Derives each player's new table from the current one, which is empty if the player has none
+     * @return Completed once every table is persisted
+     */
+    public CompletableFuture<Void> updatePlayerSpawns(Map<UUID, UnaryOperator<SpawnTable>> updates) {
+        PlayerSpawnStore store = plugin.getPlayerSpawnStore();
+        List<CompletableFuture<Void>> writes = new ArrayList<>(updates.size());
+        for (Map.Entry<UUID, UnaryOperator<SpawnTable>> entry : updates.entrySet()) {
+            UUID playerUUID = entry.getKey();
+            synchronized (stripe(playerUUID)) {
+                SpawnTable spawns = store.peek(playerUUID);
+                SpawnTable updated = entry.getValue().apply(spawns != null ? spawns : SpawnTable.empty());
+                // The store takes the table before returning, only persisting it happens later
+                writes.add(store.setAll(Collections.singletonMap(playerUUID, updated)));
+            }
+            plugin.getSessionManager().invalidate(playerUUID);
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]));
+    }
+    
+    /**
+     * Enable a spawn in config.yml, replacing any spread so it is a single point, and publish the new index
+     * @param path The path holding the enabled flag and location section
+     * @param location The location
+     */
+    public void setConfigSpawn(String path, Location location) {
+        plugin.getConfigManager().editSpawns(config -> {
+            config.set(path + ".enabled", true);
+            config.set(path + ".locations", null);
+            config.set(path + ".region", null);
+            SpawnUtils.saveLocationToConfig(config, path + ".location", location);
+        });
+    }
+    
+    private Object stripe(UUID playerUUID) {
+        int hash = playerUUID.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+}
\ No newline at end of file
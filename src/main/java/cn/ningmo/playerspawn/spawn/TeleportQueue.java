@@ -0,0 +1,161 @@
+package cn.ningmo.playerspawn.spawn;
+
+import cn.ningmo.playerspawn.utils.SchedulerUtils;
+import cn.ningmo.playerspawn.utils.TeleportUtils;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads join teleports over ticks so a login wave does not land on the same few ticks.
+ * New players are served first; entries of players who already left are dropped.
+ * Players are queued from their own threads on Folia, the queue is drained by the global tick.
+ */
+public class TeleportQueue {
+    private final Plugin plugin;
+    private final PriorityBlockingQueue<Entry> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    
+    private volatile long delay = 5;
+    private volatile boolean async = true;
+    private volatile int preloadRadius = 1;
+    private volatile int perTick = 5;
+    
+    // Metrics, only written by the tick and read from any thread
+    private volatile long dispatched;
+    private volatile long dropped;
+    private volatile long totalWaitNanos;
+    private volatile long maxWaitNanos;
+    
+    public TeleportQueue(Plugin plugin) {
+        this.plugin = plugin;
+    }
+    
+    /**
+     * Apply the join_teleport settings
+     * @param delay The delay in ticks before a join teleport becomes eligible
+     * @param async Whether to preload chunks and teleport asynchronously
+     * @param preloadRadius The radius in chunks to preload around the target
+     * @param perTick The maximum teleports started per tick, 0 for no limit
+     */
+    public void configure(long delay, boolean async, int preloadRadius, int perTick) {
+        this.delay = Math.max(0, delay);
+        this.async = async;
+        this.preloadRadius = Math.max(0, preloadRadius);
+        this.perTick = Math.max(0, perTick);
+    }
+    
+    /**
+     * Queue a join teleport. Chunk preloading starts right away, the teleport after the join delay.
+     * @param player The player
+     * @param location The target location
+     * @param newPlayer Whether the player joins for the first time, new players are served first
+     * @param afterTeleport Run on the player's thread after a successful teleport (may be null)
+     */
+    public void enqueue(Player player, Location location, boolean newPlayer, Runnable afterTeleport) {
+        CompletableFuture<Void> preload = async
+                ? TeleportUtils.preloadChunks(location, preloadRadius)
+                : CompletableFuture.completedFuture(null);
+        Entry entry = new Entry(player, location, newPlayer, sequence.getAndIncrement(), preload, afterTeleport);
+        
+        // Use a delay to ensure the teleport happens after the player fully joins
+        SchedulerUtils.runForEntity(plugin, player, () -> {
+            entry.queuedAt = System.nanoTime();
+            queue.add(entry);
+        }, delay);
+    }
+    
+    /**
+     * Start up to the per-tick budget of queued teleports. Runs every tick on the global thread.
+     */
+    public void tick() {
+        int started = 0;
+        while (perTick == 0 || started < perTick) {
+            Entry entry = queue.poll();
+            if (entry == null) {
+                break;
+            }
+            if (!entry.player.isOnline()) {
+                dropped++;
+                continue;
+            }
+            
+            long waited = System.nanoTime() - entry.queuedAt;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            dispatched++;
+            started++;
+            
+            TeleportUtils.teleport(entry.player, entry.location, async, entry.preload, entry.afterTeleport);
+        }
+    }
+    
+    /**
+     * Get the number of teleports waiting for a tick
+     * @return The queue depth
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+    
+    public long getDispatched() {
+        return dispatched;
+    }
+    
+    public long getDropped() {
+        return dropped;
+    }
+    
+    /**
+     * Get the average time a teleport waited in the queue
+     * @return The average wait in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        return dispatched == 0 ? 0 : (double) totalWaitNanos / dispatched / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    /**
+     * Get the longest time a teleport waited in the queue
+     * @return The maximum wait in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return (double) maxWaitNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    /**
+     * A queued teleport
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final Player player;
+        private final Location location;
+        private final boolean newPlayer;
+        private final long sequence;
+        private final CompletableFuture<Void> preload;
+        private final Runnable afterTeleport;
+        // Written before the entry is queued, the queue publishes it to the tick
+        private long queuedAt;
+        
+        private Entry(Player player, Location location, boolean newPlayer, long sequence,
+                      CompletableFuture<Void> preload, Runnable afterTeleport) {
+            this.player = player;
+            this.location = location;
+            this.newPlayer = newPlayer;
+            this.sequence = sequence;
+            this.preload = preload;
+            this.afterTeleport = afterTeleport;
+        }
+        
+        @Override
+        public int compareTo(Entry other) {
+            if (newPlayer != other.newPlayer) {
+                return newPlayer ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
\ No newline at end of file
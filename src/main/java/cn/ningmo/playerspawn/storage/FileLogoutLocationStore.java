@@ -0,0 +1,197 @@
+package cn.ningmo.playerspawn.storage;
+
+import cn.ningmo.playerspawn.utils.FileUtils;
+import org.bukkit.Location;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded store of player logout locations, persisted to a single binary file.
+ * Holds primitive records only, so unloaded worlds are never kept in memory.
+ * Writes are serialized; lookups read a concurrent copy of the map and take no lock.
+ */
+public class FileLogoutLocationStore implements LogoutLocationStore {
+    private static final int FORMAT_VERSION = 1;
+    // Fixed size of one record: player UUID, world UUID, x y z, yaw pitch, timestamp
+    private static final int RECORD_SIZE = 16 + 16 + 8 * 3 + 4 * 2 + 8;
+    
+    private final File file;
+    private final Logger logger;
+    // Serializes file writes between the periodic save and the shutdown save
+    private final Object saveLock = new Object();
+    // Insertion ordered, the eldest entry is the one evicted first
+    private final LinkedHashMap<UUID, LogoutLocation> locations = new LinkedHashMap<>();
+    // The same entries for lock-free lookups, only written together with locations
+    private final Map<UUID, LogoutLocation> index = new ConcurrentHashMap<>();
+    private int maxEntries = 10000;
+    private volatile long maxAgeMillis;
+    private boolean dirty;
+    
+    public FileLogoutLocationStore(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+    
+    @Override
+    public synchronized void configure(int maxEntries, long maxAgeMillis) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+        evict(System.currentTimeMillis());
+    }
+    
+    @Override
+    public synchronized void put(UUID playerUUID, Location location) {
+        LogoutLocation logoutLocation = LogoutLocation.of(location);
+        if (logoutLocation == null) {
+            return;
+        }
+        
+        // Re-insert so the entry moves to the young end
+        locations.remove(playerUUID);
+        locations.put(playerUUID, logoutLocation);
+        index.put(playerUUID, logoutLocation);
+        dirty = true;
+        evict(System.currentTimeMillis());
+    }
+    
+    @Override
+    public LogoutLocation get(UUID playerUUID) {
+        LogoutLocation location = index.get(playerUUID);
+        // Expired entries are dropped by the next eviction
+        if (location != null && isExpired(location, System.currentTimeMillis())) {
+            return null;
+        }
+        return location;
+    }
+    
+    @Override
+    public synchronized void remove(UUID playerUUID) {
+        if (locations.remove(playerUUID) != null) {
+            index.remove(playerUUID);
+            dirty = true;
+        }
+    }
+    
+    @Override
+    public int size() {
+        return index.size();
+    }
+    
+    @Override
+    public void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            int version = in.readUnsignedByte();
+            if (version != FORMAT_VERSION) {
+                logger.warning("Unknown logout location file version " + version + ", ignoring " + file);
+                return;
+            }
+            
+            int count = in.readInt();
+            synchronized (this) {
+                locations.clear();
+                index.clear();
+                for (int i = 0; i < count; i++) {
+                    UUID playerUUID = new UUID(in.readLong(), in.readLong());
+                    UUID worldUUID = new UUID(in.readLong(), in.readLong());
+                    LogoutLocation location = new LogoutLocation(worldUUID, in.readDouble(), in.readDouble(),
+                            in.readDouble(), in.readFloat(), in.readFloat(), in.readLong());
+                    locations.put(playerUUID, location);
+                    index.put(playerUUID, location);
+                }
+                evict(System.currentTimeMillis());
+                dirty = false;
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not load logout locations from " + file, e);
+        }
+    }
+    
+    @Override
+    public void saveIfDirty() {
+        synchronized (saveLock) {
+            byte[] data;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                evict(System.currentTimeMillis());
+                data = serialize();
+                dirty = false;
+            }
+            
+            try {
+                FileUtils.writeAtomically(file, data);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not save logout locations to " + file, e);
+                synchronized (this) {
+                    dirty = true;
+                }
+            }
+        }
+    }
+    
+    private byte[] serialize() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(5 + locations.size() * RECORD_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(locations.size());
+            for (Map.Entry<UUID, LogoutLocation> entry : locations.entrySet()) {
+                LogoutLocation location = entry.getValue();
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(location.worldUUID.getMostSignificantBits());
+                out.writeLong(location.worldUUID.getLeastSignificantBits());
+                out.writeDouble(location.x);
+                out.writeDouble(location.y);
+                out.writeDouble(location.z);
+                out.writeFloat(location.yaw);
+                out.writeFloat(location.pitch);
+                out.writeLong(location.savedAt);
+            }
+        } catch (IOException e) {
+            // Cannot happen for an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Drop expired entries and the eldest entries above the size limit
+     * @param now The current time in milliseconds
+     */
+    private void evict(long now) {
+        Iterator<Map.Entry<UUID, LogoutLocation>> iterator = locations.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, LogoutLocation> entry = iterator.next();
+            if (locations.size() > maxEntries || isExpired(entry.getValue(), now)) {
+                iterator.remove();
+                index.remove(entry.getKey());
+                dirty = true;
+            } else {
+                // Entries are ordered by save time, the rest are younger
+                break;
+            }
+        }
+    }
+    
+    private boolean isExpired(LogoutLocation location, long now) {
+        return maxAgeMillis > 0 && now - location.savedAt > maxAgeMillis;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,265 @@
+package cn.ningmo.playerspawn.storage;
+
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.utils.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Player spawn store keeping one small binary file per player.
+ * Records are read lazily on first access and written on a background thread.
+ */
+public class FilePlayerSpawnStore implements PlayerSpawnStore {
+    private final File directory;
+    private final Logger logger;
+    private final Map<UUID, SpawnTable> cache = new ConcurrentHashMap<>();
+    // Latest unwritten record per player, repeated changes collapse into one write
+    private final Map<UUID, SpawnTable> pending = new ConcurrentHashMap<>();
+    private final ExecutorService writer;
+    
+    public FilePlayerSpawnStore(File directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PlayerSpawn-Storage");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public SpawnTable get(UUID playerUUID) {
+        SpawnTable spawns = cache.get(playerUUID);
+        if (spawns == null) {
+            spawns = pending.get(playerUUID);
+            if (spawns == null) {
+                spawns = read(playerUUID);
+            }
+            
+            // Keep a newer record set while we were reading
+            SpawnTable existing = cache.putIfAbsent(playerUUID, spawns);
+            if (existing != null) {
+                spawns = existing;
+            }
+        }
+        return spawns.isEmpty() ? null : spawns;
+    }
+    
+    @Override
+    public void set(UUID playerUUID, SpawnTable spawns) {
+        if (spawns == null) {
+            spawns = SpawnTable.empty();
+        }
+        
+        cache.put(playerUUID, spawns);
+        if (pending.put(playerUUID, spawns) == null) {
+            writer.execute(() -> flush(playerUUID));
+        }
+    }
+    
+    @Override
+    public SpawnTable peek(UUID playerUUID) {
+        SpawnTable spawns = cache.get(playerUUID);
+        if (spawns == null) {
+            spawns = pending.get(playerUUID);
+        }
+        if (spawns == null) {
+            spawns = read(playerUUID);
+        }
+        return spawns.isEmpty() ? null : spawns;
+    }
+    
+    @Override
+    public CompletableFuture<Void> setAll(Map<UUID, SpawnTable> spawns) {
+        List<UUID> players = new ArrayList<>(spawns.size());
+        for (Map.Entry<UUID, SpawnTable> entry : spawns.entrySet()) {
+            SpawnTable table = entry.getValue() != null ? entry.getValue() : SpawnTable.empty();
+            cache.computeIfPresent(entry.getKey(), (uuid, cached) -> table);
+            pending.put(entry.getKey(), table);
+            players.add(entry.getKey());
+        }
+        
+        // One task for the whole batch; records already queued by set() are simply written once more
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        writer.execute(() -> {
+            int failed = 0;
+            for (UUID playerUUID : players) {
+                if (!flush(playerUUID)) {
+                    failed++;
+                }
+            }
+            if (failed > 0) {
+                done.completeExceptionally(new IOException("Could not save the spawns of " + failed + " players"));
+            } else {
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+    
+    @Override
+    public void forEach(BiConsumer<UUID, SpawnTable> action) throws IOException {
+        if (directory.isDirectory()) {
+            try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory.toPath(), Files::isDirectory)) {
+                for (Path shard : shards) {
+                    forEachInShard(shard, action);
+                }
+            }
+        }
+        
+        // New records that are not written yet
+        for (Map.Entry<UUID, SpawnTable> entry : pending.entrySet()) {
+            if (!entry.getValue().isEmpty() && !getFile(entry.getKey()).isFile()) {
+                action.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Visit the records in one shard directory
+     * @param shard The shard directory
+     * @param action Receives each player's UUID and spawn table
+     * @throws IOException If the directory could not be listed
+     */
+    private void forEachInShard(Path shard, BiConsumer<UUID, SpawnTable> action) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(shard, "*.dat")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                UUID playerUUID;
+                try {
+                    playerUUID = UUID.fromString(name.substring(0, name.length() - ".dat".length()));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                
+                SpawnTable spawns = peek(playerUUID);
+                if (spawns != null) {
+                    action.accept(playerUUID, spawns);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void preload(UUID playerUUID) {
+        // Reads the record into the cache, so the join does not read the file on the main thread
+        get(playerUUID);
+    }
+    
+    @Override
+    public void unload(UUID playerUUID) {
+        cache.remove(playerUUID);
+    }
+    
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warning("Timed out waiting for player spawn writes, " + pending.size() + " records may be lost");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cache.clear();
+    }
+    
+    /**
+     * Write the latest pending record of a player
+     * @param playerUUID The player's UUID
+     * @return False if a write failed
+     */
+    private boolean flush(UUID playerUUID) {
+        boolean written = true;
+        SpawnTable spawns;
+        while ((spawns = pending.get(playerUUID)) != null) {
+            try {
+                write(playerUUID, spawns);
+                written = true;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not save spawn of player " + playerUUID, e);
+                written = false;
+            }
+            
+            // Write again if the record changed while we were writing
+            if (pending.remove(playerUUID, spawns)) {
+                break;
+            }
+        }
+        return written;
+    }
+    
+    /**
+     * Get the file of a player's record, sharded by the first UUID characters
+     * @param playerUUID The player's UUID
+     * @return The record file
+     */
+    private File getFile(UUID playerUUID) {
+        String name = playerUUID.toString();
+        return new File(new File(directory, name.substring(0, 2)), name + ".dat");
+    }
+    
+    /**
+     * Read a player's record from disk
+     * @param playerUUID The player's UUID
+     * @return The spawn table, empty if the player has no record
+     */
+    private SpawnTable read(UUID playerUUID) {
+        File file = getFile(playerUUID);
+        if (!file.isFile()) {
+            return SpawnTable.empty();
+        }
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            return SpawnTableCodec.read(in);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not load spawn of player " + playerUUID + " from " + file, e);
+            return SpawnTable.empty();
+        }
+    }
+    
+    /**
+     * Write a player's record to disk, replacing the old one atomically
+     * @param playerUUID The player's UUID
+     * @param spawns The spawn table
+     * @throws IOException If the record could not be written
+     */
+    private void write(UUID playerUUID, SpawnTable spawns) throws IOException {
+        File file = getFile(playerUUID);
+        if (spawns.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+            SpawnTableCodec.write(out, spawns);
+        }
+        FileUtils.moveAtomically(temp.toPath(), file.toPath());
+    }
+}
\ No newline at end of file
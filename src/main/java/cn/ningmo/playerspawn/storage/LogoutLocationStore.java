@@ -0,0 +1,128 @@
+package cn.ningmo.playerspawn.storage;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.UUID;
+
+/**
+ * Storage backend for player logout locations
+ */
+public interface LogoutLocationStore {
+    
+    /**
+     * Set the eviction limits
+     * @param maxEntries The maximum number of stored locations
+     * @param maxAgeMillis The maximum age of a location in milliseconds, 0 to keep forever
+     */
+    void configure(int maxEntries, long maxAgeMillis);
+    
+    /**
+     * Save a player's logout location
+     * @param playerUUID The player's UUID
+     * @param location The location, ignored if its world is not set
+     */
+    void put(UUID playerUUID, Location location);
+    
+    /**
+     * Get a player's logout location, safe to call from any thread
+     * @param playerUUID The player's UUID
+     * @return The logout location, or null if none is stored or it expired
+     */
+    LogoutLocation get(UUID playerUUID);
+    
+    /**
+     * Remove a player's logout location
+     * @param playerUUID The player's UUID
+     */
+    void remove(UUID playerUUID);
+    
+    /**
+     * Load a player's logout location into memory before they join, called off the main thread
+     * @param playerUUID The player's UUID
+     */
+    default void preload(UUID playerUUID) {
+    }
+    
+    /**
+     * Drop a player's preloaded logout location from memory once it was read
+     * @param playerUUID The player's UUID
+     */
+    default void unload(UUID playerUUID) {
+    }
+    
+    /**
+     * Get the number of locations held in memory
+     * @return The number of locations
+     */
+    int size();
+    
+    /**
+     * Load the stored locations, dropping expired ones
+     */
+    void load();
+    
+    /**
+     * Persist the locations that changed since the last save.
+     * Safe to call from any thread.
+     */
+    void saveIfDirty();
+    
+    /**
+     * A stored logout location
+     */
+    final class LogoutLocation {
+        final UUID worldUUID;
+        final double x;
+        final double y;
+        final double z;
+        final float yaw;
+        final float pitch;
+        final long savedAt;
+        
+        LogoutLocation(UUID worldUUID, double x, double y, double z, float yaw, float pitch, long savedAt) {
+            this.worldUUID = worldUUID;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+            this.pitch = pitch;
+            this.savedAt = savedAt;
+        }
+        
+        /**
+         * Create a record of a location
+         * @param location The location
+         * @return The record, or null if the location has no world
+         */
+        static LogoutLocation of(Location location) {
+            World world = location.getWorld();
+            if (world == null) {
+                return null;
+            }
+            return new LogoutLocation(world.getUID(), location.getX(), location.getY(), location.getZ(),
+                    location.getYaw(), location.getPitch(), System.currentTimeMillis());
+        }
+        
+        /**
+         * Create a location from this record
+         * @return The location, or null if the world is not loaded
+         */
+        public Location toLocation() {
+            World world = Bukkit.getWorld(worldUUID);
+            if (world == null) {
+                return null;
+            }
+            return new Location(world, x, y, z, yaw, pitch);
+        }
+        
+        public UUID getWorldUUID() {
+            return worldUUID;
+        }
+        
+        public long getSavedAt() {
+            return savedAt;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,69 @@
+package cn.ningmo.playerspawn.storage;
+
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage backend for per-player spawn points
+ */
+public interface PlayerSpawnStore {
+    
+    /**
+     * Get a player's spawns, loading them from storage if they are not cached
+     * @param playerUUID The player's UUID
+     * @return The spawn table, or null if the player has no spawn set
+     */
+    SpawnTable get(UUID playerUUID);
+    
+    /**
+     * Load a player's spawns into memory before they join, so the join does not wait for storage.
+     * Called off the main thread; stores that read cheaply on first access need not do anything.
+     * @param playerUUID The player's UUID
+     */
+    default void preload(UUID playerUUID) {
+    }
+    
+    /**
+     * Replace a player's spawns and persist only that player's record
+     * @param playerUUID The player's UUID
+     * @param spawns The new spawn table
+     */
+    void set(UUID playerUUID, SpawnTable spawns);
+    
+    /**
+     * Get a player's spawns without caching them, for bulk operations
+     * @param playerUUID The player's UUID
+     * @return The spawn table, or null if the player has no spawn set
+     */
+    SpawnTable peek(UUID playerUUID);
+    
+    /**
+     * Replace the spawns of many players in one batch. Records of players that are not cached stay uncached.
+     * @param spawns The new spawn tables by player UUID
+     * @return Completed once every record of the batch is persisted
+     */
+    CompletableFuture<Void> setAll(Map<UUID, SpawnTable> spawns);
+    
+    /**
+     * Visit every stored record one at a time, without loading them all into memory
+     * @param action Receives each player's UUID and spawn table
+     * @throws IOException If the records could not be listed
+     */
+    void forEach(BiConsumer<UUID, SpawnTable> action) throws IOException;
+    
+    /**
+     * Drop a player's spawns from memory, pending writes are still persisted
+     * @param playerUUID The player's UUID
+     */
+    void unload(UUID playerUUID);
+    
+    /**
+     * Write all pending changes and release resources
+     */
+    void close();
+}
\ No newline at end of file
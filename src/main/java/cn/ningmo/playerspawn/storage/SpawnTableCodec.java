@@ -0,0 +1,110 @@
+package cn.ningmo.playerspawn.storage;
+
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The binary form of a player's spawn table, shared by the file and SQL stores
+ */
+final class SpawnTableCodec {
+    private static final int FORMAT_VERSION = 1;
+    
+    private SpawnTableCodec() {
+    }
+    
+    /**
+     * Read a spawn table
+     * @param in The stream positioned at the record
+     * @return The spawn table
+     * @throws IOException If the record could not be read or has an unknown version
+     */
+    static SpawnTable read(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown spawn record version " + version);
+        }
+        
+        SpawnPoint server = in.readBoolean() ? readPoint(in) : null;
+        int worldCount = in.readUnsignedShort();
+        Map<String, SpawnPoint> worlds = new HashMap<>(worldCount * 2);
+        for (int i = 0; i < worldCount; i++) {
+            String worldName = in.readUTF();
+            worlds.put(worldName, readPoint(in));
+        }
+        return SpawnTable.of(server, worlds);
+    }
+    
+    /**
+     * Write a spawn table
+     * @param out The stream to write to
+     * @param spawns The spawn table
+     * @throws IOException If the record could not be written
+     */
+    static void write(DataOutputStream out, SpawnTable spawns) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        
+        SpawnPoint server = spawns.getServer();
+        out.writeBoolean(server != null);
+        if (server != null) {
+            writePoint(out, server);
+        }
+        
+        out.writeShort(spawns.getWorlds().size());
+        for (Map.Entry<String, SpawnPoint> entry : spawns.getWorlds().entrySet()) {
+            out.writeUTF(entry.getKey());
+            writePoint(out, entry.getValue());
+        }
+    }
+    
+    /**
+     * Decode a spawn table from bytes
+     * @param data The encoded record
+     * @return The spawn table
+     * @throws IOException If the record is malformed
+     */
+    static SpawnTable decode(byte[] data) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+    
+    /**
+     * Encode a spawn table to bytes
+     * @param spawns The spawn table
+     * @return The encoded record
+     */
+    static byte[] encode(SpawnTable spawns) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out, spawns);
+        } catch (IOException e) {
+            // Not thrown by in-memory streams
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static SpawnPoint readPoint(DataInputStream in) throws IOException {
+        String worldName = in.readBoolean() ? in.readUTF() : null;
+        return new SpawnPoint(worldName, in.readDouble(), in.readDouble(), in.readDouble(),
+                in.readFloat(), in.readFloat());
+    }
+    
+    private static void writePoint(DataOutputStream out, SpawnPoint point) throws IOException {
+        out.writeBoolean(point.getWorldName() != null);
+        if (point.getWorldName() != null) {
+            out.writeUTF(point.getWorldName());
+        }
+        out.writeDouble(point.getX());
+        out.writeDouble(point.getY());
+        out.writeDouble(point.getZ());
+        out.writeFloat(point.getYaw());
+        out.writeFloat(point.getPitch());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,349 @@
+package cn.ningmo.playerspawn.storage;
+
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.spawn.SpawnRegistry;
+import cn.ningmo.playerspawn.utils.FileUtils;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.LongConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Streams per-player spawns between the spawn store and CSV or JSON lines files.
+ * Each line holds one spawn: the player, the scope ("server" or the world the spawn is for) and the location.
+ * Records are read and written one at a time and applied in fixed-size batches, so memory use does not
+ * grow with the file size.
+ */
+public class SpawnTransfer {
+    public static final String SERVER_SCOPE = "server";
+    // Players per batch written to the store, and records between progress reports
+    private static final int BATCH_SIZE = 1000;
+    private static final int PROGRESS_INTERVAL = 10000;
+    private static final int MAX_ERRORS = 10;
+    private static final String CSV_HEADER = "uuid,scope,world,x,y,z,yaw,pitch";
+    
+    private final PlayerSpawnStore store;
+    private final SpawnRegistry registry;
+    
+    /**
+     * Create a transfer
+     * @param store The spawn store, read by exports
+     * @param registry The spawn registry, imports are written through it like any other spawn change
+     */
+    public SpawnTransfer(PlayerSpawnStore store, SpawnRegistry registry) {
+        this.store = store;
+        this.registry = registry;
+    }
+    
+    /**
+     * A supported file format
+     */
+    public enum Format {
+        CSV,
+        JSONL;
+        
+        /**
+         * Get the format of a file from its extension
+         * @param file The file
+         * @return The format, or null if the extension is not .csv, .jsonl or .json
+         */
+        public static Format of(File file) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".jsonl") || name.endsWith(".json")) {
+                return JSONL;
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Import spawns from a file, merging them into the players' existing spawns.
+     * Runs on the calling thread, which should not be the main thread.
+     * @param file The file to read
+     * @param worlds The names of the loaded worlds, records for other worlds are skipped
+     * @param progress Receives the number of processed records every few thousand records
+     * @return The outcome
+     * @throws IOException If the file could not be read
+     */
+    public Result importFile(File file, Set<String> worlds, LongConsumer progress) throws IOException {
+        Format format = Format.of(file);
+        if (format == null) {
+            throw new IOException("Unsupported file type: " + file.getName());
+        }
+        
+        Result result = new Result();
+        // The imported spawns of each player, merged into their stored spawns when the batch is applied
+        Map<UUID, SpawnTable> batch = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || (lineNumber == 1 && line.startsWith("uuid"))) {
+                    continue;
+                }
+                
+                result.processed++;
+                Record record;
+                try {
+                    record = format == Format.CSV ? parseCsv(line) : parseJson(line);
+                    validate(record, worlds);
+                } catch (RuntimeException e) {
+                    result.skip("line " + lineNumber + ": " + e.getMessage());
+                    continue;
+                }
+                
+                SpawnTable spawns = batch.getOrDefault(record.playerUUID, SpawnTable.empty());
+                batch.put(record.playerUUID, spawns.with(record.scope, record.point));
+                result.imported++;
+                
+                // Wait for each batch so pending writes never pile up
+                if (batch.size() >= BATCH_SIZE) {
+                    apply(batch);
+                    batch = new HashMap<>();
+                }
+                if (result.processed % PROGRESS_INTERVAL == 0) {
+                    progress.accept(result.processed);
+                }
+            }
+        }
+        
+        if (!batch.isEmpty()) {
+            apply(batch);
+        }
+        return result;
+    }
+    
+    /**
+     * Merge a batch into the stored spawns, serialized with other writes of the same players
+     * @param batch The imported spawns by player UUID
+     */
+    private void apply(Map<UUID, SpawnTable> batch) {
+        Map<UUID, UnaryOperator<SpawnTable>> updates = new HashMap<>();
+        for (Map.Entry<UUID, SpawnTable> entry : batch.entrySet()) {
+            SpawnTable imported = entry.getValue();
+            updates.put(entry.getKey(), spawns -> merge(spawns, imported));
+        }
+        registry.updatePlayerSpawns(updates).join();
+    }
+    
+    private static SpawnTable merge(SpawnTable spawns, SpawnTable imported) {
+        if (imported.getServer() != null) {
+            spawns = spawns.with(null, imported.getServer());
+        }
+        for (Map.Entry<String, SpawnPoint> entry : imported.getWorlds().entrySet()) {
+            spawns = spawns.with(entry.getKey(), entry.getValue());
+        }
+        return spawns;
+    }
+    
+    /**
+     * Export every stored spawn to a file, replacing it once complete.
+     * Runs on the calling thread, which should not be the main thread.
+     * @param file The file to write
+     * @param progress Receives the number of written records every few thousand records
+     * @return The number of written records
+     * @throws IOException If the file could not be written
+     */
+    public long exportFile(File file, LongConsumer progress) throws IOException {
+        Format format = Format.of(file);
+        if (format == null) {
+            throw new IOException("Unsupported file type: " + file.getName());
+        }
+        
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        
+        Path temp = file.toPath().resolveSibling(file.getName() + ".tmp");
+        // Records written, and the count at which to report progress next
+        long[] written = {0, PROGRESS_INTERVAL};
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            if (format == Format.CSV) {
+                writer.write(CSV_HEADER);
+                writer.newLine();
+            }
+            
+            store.forEach((playerUUID, spawns) -> {
+                try {
+                    if (spawns.getServer() != null && spawns.getServer().getWorldName() != null) {
+                        writeRecord(writer, format, playerUUID, SERVER_SCOPE, spawns.getServer());
+                        written[0]++;
+                    }
+                    for (Map.Entry<String, SpawnPoint> entry : spawns.getWorlds().entrySet()) {
+                        if (entry.getValue().getWorldName() == null) {
+                            continue;
+                        }
+                        writeRecord(writer, format, playerUUID, entry.getKey(), entry.getValue());
+                        written[0]++;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                
+                if (written[0] >= written[1]) {
+                    progress.accept(written[0]);
+                    written[1] += PROGRESS_INTERVAL;
+                }
+            });
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(temp);
+            throw e.getCause();
+        }
+        
+        FileUtils.moveAtomically(temp, file.toPath());
+        return written[0];
+    }
+    
+    private static void writeRecord(BufferedWriter writer, Format format, UUID playerUUID, String scope,
+                                    SpawnPoint point) throws IOException {
+        if (format == Format.CSV) {
+            writer.write(playerUUID + "," + scope + "," + point.getWorldName() + "," + point.getX() + ","
+                    + point.getY() + "," + point.getZ() + "," + point.getYaw() + "," + point.getPitch());
+        } else {
+            JsonObject json = new JsonObject();
+            json.addProperty("uuid", playerUUID.toString());
+            json.addProperty("scope", scope);
+            json.addProperty("world", point.getWorldName());
+            json.addProperty("x", point.getX());
+            json.addProperty("y", point.getY());
+            json.addProperty("z", point.getZ());
+            json.addProperty("yaw", point.getYaw());
+            json.addProperty("pitch", point.getPitch());
+            writer.write(json.toString());
+        }
+        writer.newLine();
+    }
+    
+    /**
+     * Parse a line of uuid,scope,world,x,y,z[,yaw,pitch]
+     */
+    private static Record parseCsv(String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 6 && fields.length != 8) {
+            throw new IllegalArgumentException("expected 6 or 8 fields, found " + fields.length);
+        }
+        
+        float yaw = fields.length == 8 ? Float.parseFloat(fields[6].trim()) : 0;
+        float pitch = fields.length == 8 ? Float.parseFloat(fields[7].trim()) : 0;
+        return new Record(UUID.fromString(fields[0].trim()), fields[1].trim(), new SpawnPoint(fields[2].trim(),
+                Double.parseDouble(fields[3].trim()), Double.parseDouble(fields[4].trim()),
+                Double.parseDouble(fields[5].trim()), yaw, pitch));
+    }
+    
+    /**
+     * Parse a line of {"uuid": ..., "scope": ..., "world": ..., "x": ..., "y": ..., "z": ..., "yaw": ..., "pitch": ...}
+     */
+    private static Record parseJson(String line) {
+        JsonElement element = JsonParser.parseString(line);
+        if (!element.isJsonObject()) {
+            throw new IllegalArgumentException("expected a JSON object");
+        }
+        
+        JsonObject json = element.getAsJsonObject();
+        String scope = json.has("scope") ? require(json, "scope").getAsString() : SERVER_SCOPE;
+        float yaw = json.has("yaw") ? require(json, "yaw").getAsFloat() : 0;
+        float pitch = json.has("pitch") ? require(json, "pitch").getAsFloat() : 0;
+        return new Record(UUID.fromString(require(json, "uuid").getAsString()), scope, new SpawnPoint(
+                require(json, "world").getAsString(), require(json, "x").getAsDouble(),
+                require(json, "y").getAsDouble(), require(json, "z").getAsDouble(), yaw, pitch));
+    }
+    
+    private static JsonElement require(JsonObject json, String key) {
+        JsonElement value = json.get(key);
+        if (value == null || value.isJsonNull()) {
+            throw new IllegalArgumentException("missing '" + key + "'");
+        }
+        return value;
+    }
+    
+    private static void validate(Record record, Set<String> worlds) {
+        if (!worlds.contains(record.point.getWorldName())) {
+            throw new IllegalArgumentException("unknown world '" + record.point.getWorldName() + "'");
+        }
+        if (record.scope != null && !worlds.contains(record.scope)) {
+            throw new IllegalArgumentException("unknown world '" + record.scope + "'");
+        }
+        if (!Double.isFinite(record.point.getX()) || !Double.isFinite(record.point.getY())
+                || !Double.isFinite(record.point.getZ())) {
+            throw new IllegalArgumentException("invalid coordinates");
+        }
+    }
+    
+    /**
+     * One spawn read from a file
+     */
+    private static final class Record {
+        private final UUID playerUUID;
+        // The world the spawn is for, or null for the server-wide spawn
+        private final String scope;
+        private final SpawnPoint point;
+        
+        private Record(UUID playerUUID, String scope, SpawnPoint point) {
+            this.playerUUID = playerUUID;
+            this.scope = scope.equalsIgnoreCase(SERVER_SCOPE) ? null : scope;
+            this.point = point;
+        }
+    }
+    
+    /**
+     * The outcome of an import
+     */
+    public static final class Result {
+        private long processed;
+        private long imported;
+        private long skipped;
+        private final List<String> errors = new ArrayList<>();
+        
+        private void skip(String error) {
+            skipped++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+        
+        public long getProcessed() {
+            return processed;
+        }
+        
+        public long getImported() {
+            return imported;
+        }
+        
+        public long getSkipped() {
+            return skipped;
+        }
+        
+        /**
+         * Get why the first skipped records were skipped
+         * @return Up to ten errors with their line numbers
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,113 @@
+package cn.ningmo.playerspawn.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * The SQL that differs between the supported databases
+ */
+public enum SqlDialect {
+    MYSQL("BLOB", "BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY") {
+        @Override
+        String upsert(String table, String key, String... columns) {
+            return insert(table, key, columns) + " ON DUPLICATE KEY UPDATE " + Arrays.stream(columns)
+                    .map(column -> column + " = VALUES(" + column + ")")
+                    .collect(Collectors.joining(", "));
+        }
+        
+        @Override
+        List<String> createLogoutTable(String table) {
+            // MySQL has no CREATE INDEX IF NOT EXISTS, the index is declared with the table
+            return Collections.singletonList(logoutTable(table, ", INDEX (saved_at)"));
+        }
+    },
+    H2("VARBINARY", "BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY") {
+        @Override
+        String upsert(String table, String key, String... columns) {
+            return "MERGE INTO " + table + " (" + key + ", " + String.join(", ", columns) + ") KEY (" + key
+                    + ") VALUES (" + placeholders(columns.length + 1) + ")";
+        }
+    },
+    SQLITE("BLOB", "INTEGER PRIMARY KEY AUTOINCREMENT") {
+        @Override
+        String upsert(String table, String key, String... columns) {
+            return insert(table, key, columns) + " ON CONFLICT(" + key + ") DO UPDATE SET " + Arrays.stream(columns)
+                    .map(column -> column + " = excluded." + column)
+                    .collect(Collectors.joining(", "));
+        }
+    };
+    
+    private final String binaryType;
+    private final String serialKey;
+    
+    SqlDialect(String binaryType, String serialKey) {
+        this.binaryType = binaryType;
+        this.serialKey = serialKey;
+    }
+    
+    /**
+     * Get the dialect of a JDBC URL
+     * @param jdbcUrl The JDBC URL
+     * @return The dialect, or null if the database is not supported
+     */
+    public static SqlDialect of(String jdbcUrl) {
+        String url = jdbcUrl.toLowerCase(Locale.ROOT);
+        if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+            return MYSQL;
+        }
+        if (url.startsWith("jdbc:h2:")) {
+            return H2;
+        }
+        if (url.startsWith("jdbc:sqlite:")) {
+            return SQLITE;
+        }
+        return null;
+    }
+    
+    /**
+     * Get the statement creating the spawn table, one row per player
+     */
+    String createSpawnTable(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (uuid CHAR(36) NOT NULL PRIMARY KEY, spawns "
+                + binaryType + " NOT NULL, updated_at BIGINT NOT NULL)";
+    }
+    
+    /**
+     * Get the statement creating the change log other servers poll
+     */
+    String createChangeTable(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (id " + serialKey + ", uuid CHAR(36) NOT NULL,"
+                + " server VARCHAR(64) NOT NULL, changed_at BIGINT NOT NULL)";
+    }
+    
+    /**
+     * Get the statements creating the logout location table, one row per player indexed by save time for eviction
+     */
+    List<String> createLogoutTable(String table) {
+        return Arrays.asList(logoutTable(table, ""),
+                "CREATE INDEX IF NOT EXISTS " + table + "_saved_at ON " + table + " (saved_at)");
+    }
+    
+    /**
+     * Get the statement inserting or replacing a row, with the key followed by the columns as parameters
+     */
+    abstract String upsert(String table, String key, String... columns);
+    
+    private static String logoutTable(String table, String extra) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (uuid CHAR(36) NOT NULL PRIMARY KEY, world CHAR(36) NOT NULL,"
+                + " x DOUBLE NOT NULL, y DOUBLE NOT NULL, z DOUBLE NOT NULL, yaw FLOAT NOT NULL, pitch FLOAT NOT NULL,"
+                + " saved_at BIGINT NOT NULL" + extra + ")";
+    }
+    
+    private static String insert(String table, String key, String... columns) {
+        return "INSERT INTO " + table + " (" + key + ", " + String.join(", ", columns) + ") VALUES ("
+                + placeholders(columns.length + 1) + ")";
+    }
+    
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,227 @@
+package cn.ningmo.playerspawn.storage;
+
+import org.bukkit.Location;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logout locations in a SQL table, one row per player.
+ * Only the locations of joining players are held in memory; changes are written in batches by {@link #saveIfDirty()}.
+ */
+public class SqlLogoutLocationStore implements LogoutLocationStore {
+    private final DataSource dataSource;
+    private final SqlDialect dialect;
+    private final String table;
+    private final Logger logger;
+    // Serializes batch writes between the periodic save and the shutdown save
+    private final Object saveLock = new Object();
+    // Preloaded rows of joining and online players, empty if the player has none
+    private final Map<UUID, Optional<LogoutLocation>> cache = new ConcurrentHashMap<>();
+    // Unwritten changes, empty to delete the row
+    private final Map<UUID, Optional<LogoutLocation>> pending = new ConcurrentHashMap<>();
+    private volatile int maxEntries = 10000;
+    private volatile long maxAgeMillis;
+    
+    /**
+     * Create a store, {@link #load()} creates the table
+     * @param dataSource The connection pool
+     * @param dialect The database dialect
+     * @param tablePrefix The prefix of the table name
+     * @param logger The logger for storage failures
+     */
+    public SqlLogoutLocationStore(DataSource dataSource, SqlDialect dialect, String tablePrefix, Logger logger) {
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+        this.table = tablePrefix + "logout_locations";
+        this.logger = logger;
+    }
+    
+    @Override
+    public void configure(int maxEntries, long maxAgeMillis) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+    }
+    
+    @Override
+    public void put(UUID playerUUID, Location location) {
+        LogoutLocation logoutLocation = LogoutLocation.of(location);
+        if (logoutLocation != null) {
+            pending.put(playerUUID, Optional.of(logoutLocation));
+        }
+    }
+    
+    @Override
+    public LogoutLocation get(UUID playerUUID) {
+        Optional<LogoutLocation> location = pending.get(playerUUID);
+        if (location == null) {
+            location = cache.get(playerUUID);
+        }
+        if (location == null) {
+            // Only reached when the player was not preloaded
+            location = load(playerUUID);
+        }
+        return location.filter(value -> !isExpired(value, System.currentTimeMillis())).orElse(null);
+    }
+    
+    @Override
+    public void remove(UUID playerUUID) {
+        pending.put(playerUUID, Optional.empty());
+        cache.remove(playerUUID);
+    }
+    
+    @Override
+    public void preload(UUID playerUUID) {
+        if (!pending.containsKey(playerUUID) && !cache.containsKey(playerUUID)) {
+            cache.put(playerUUID, load(playerUUID));
+        }
+    }
+    
+    @Override
+    public void unload(UUID playerUUID) {
+        cache.remove(playerUUID);
+    }
+    
+    @Override
+    public int size() {
+        return cache.size() + pending.size();
+    }
+    
+    @Override
+    public void load() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : dialect.createLogoutTable(table)) {
+                statement.executeUpdate(sql);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Could not create the logout location table", e);
+        }
+    }
+    
+    @Override
+    public void saveIfDirty() {
+        synchronized (saveLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Map<UUID, Optional<LogoutLocation>> batch = new HashMap<>(pending);
+            
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    write(connection, batch);
+                    evict(connection, System.currentTimeMillis());
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                // The batch stays pending and is written with the next save
+                logger.log(Level.SEVERE, "Could not save " + batch.size() + " logout locations", e);
+                return;
+            }
+            
+            // Keep locations that changed again while we were writing
+            for (Map.Entry<UUID, Optional<LogoutLocation>> entry : batch.entrySet()) {
+                pending.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+    
+    private void write(Connection connection, Map<UUID, Optional<LogoutLocation>> batch) throws SQLException {
+        try (PreparedStatement upsert = connection.prepareStatement(
+                dialect.upsert(table, "uuid", "world", "x", "y", "z", "yaw", "pitch", "saved_at"));
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE uuid = ?")) {
+            for (Map.Entry<UUID, Optional<LogoutLocation>> entry : batch.entrySet()) {
+                if (!entry.getValue().isPresent()) {
+                    delete.setString(1, entry.getKey().toString());
+                    delete.addBatch();
+                    continue;
+                }
+                
+                LogoutLocation location = entry.getValue().get();
+                upsert.setString(1, entry.getKey().toString());
+                upsert.setString(2, location.worldUUID.toString());
+                upsert.setDouble(3, location.x);
+                upsert.setDouble(4, location.y);
+                upsert.setDouble(5, location.z);
+                upsert.setFloat(6, location.yaw);
+                upsert.setFloat(7, location.pitch);
+                upsert.setLong(8, location.savedAt);
+                upsert.addBatch();
+            }
+            upsert.executeBatch();
+            delete.executeBatch();
+        }
+    }
+    
+    /**
+     * Delete expired rows and the eldest rows above the size limit
+     * @param connection The connection
+     * @param now The current time in milliseconds
+     * @throws SQLException If the rows could not be deleted
+     */
+    private void evict(Connection connection, long now) throws SQLException {
+        long cutoff = maxAgeMillis > 0 ? now - maxAgeMillis : Long.MIN_VALUE;
+        
+        // The save time of the newest row that no longer fits
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT saved_at FROM " + table + " ORDER BY saved_at DESC LIMIT 1 OFFSET ?")) {
+            statement.setInt(1, maxEntries);
+            try (ResultSet result = statement.executeQuery()) {
+                if (result.next()) {
+                    cutoff = Math.max(cutoff, result.getLong(1) + 1);
+                }
+            }
+        }
+        
+        if (cutoff != Long.MIN_VALUE) {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "DELETE FROM " + table + " WHERE saved_at < ?")) {
+                statement.setLong(1, cutoff);
+                statement.executeUpdate();
+            }
+        }
+    }
+    
+    /**
+     * Read a player's row
+     * @param playerUUID The player's UUID
+     * @return The location, empty if the player has none or it could not be read
+     */
+    private Optional<LogoutLocation> load(UUID playerUUID) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT world, x, y, z, yaw, pitch, saved_at FROM " + table + " WHERE uuid = ?")) {
+            statement.setString(1, playerUUID.toString());
+            try (ResultSet result = statement.executeQuery()) {
+                if (!result.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new LogoutLocation(UUID.fromString(result.getString(1)), result.getDouble(2),
+                        result.getDouble(3), result.getDouble(4), result.getFloat(5), result.getFloat(6),
+                        result.getLong(7)));
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            logger.log(Level.SEVERE, "Could not load logout location of player " + playerUUID, e);
+            return Optional.empty();
+        }
+    }
+    
+    private boolean isExpired(LogoutLocation location, long now) {
+        return maxAgeMillis > 0 && now - location.savedAt > maxAgeMillis;
+    }
+}
\ No newline at end of file
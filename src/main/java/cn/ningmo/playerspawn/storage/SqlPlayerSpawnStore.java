@@ -0,0 +1,485 @@
+package cn.ningmo.playerspawn.storage;
+
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Player spawn store in a SQL database, embedded or shared by the servers of a network.
+ * Reads go through a local cache whose entries are refreshed in the background once they are older than the TTL,
+ * and writes are collected and sent in batches. When the database is shared, every write is also logged to a change
+ * table that the other servers poll, so they reload the player right away instead of waiting for the TTL.
+ */
+public class SqlPlayerSpawnStore implements PlayerSpawnStore {
+    // Change log rows older than this are deleted, servers offline for longer rely on the TTL
+    private static final long CHANGE_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final int POLL_LIMIT = 1000;
+    // Ids skipped by the poll may belong to transactions that commit later, they are checked again until this old
+    private static final long GAP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int MAX_GAPS = 10000;
+    private static final int GAP_QUERY_LIMIT = 500;
+    
+    private final DataSource dataSource;
+    private final SqlDialect dialect;
+    private final String spawnTable;
+    private final String changeTable;
+    private final String serverId;
+    private final long cacheTtlMillis;
+    private final long flushIntervalMillis;
+    private final Logger logger;
+    private final Map<UUID, CachedSpawns> cache = new ConcurrentHashMap<>();
+    // Latest unwritten record per player, repeated changes collapse into one row
+    private final Map<UUID, SpawnTable> pending = new ConcurrentHashMap<>();
+    private final Set<UUID> refreshing = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor executor;
+    private volatile Consumer<UUID> changeListener = playerUUID -> { };
+    // Whether other servers share the database, only then are changes logged and polled
+    private volatile boolean shared;
+    // Only touched on the executor thread
+    private long lastChangeId;
+    // Ids below lastChangeId not seen yet, by the time they were first missed
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+    private long lastPrune;
+    
+    /**
+     * Create a store, {@link #open(long)} must be called before use
+     * @param dataSource The connection pool
+     * @param dialect The database dialect
+     * @param tablePrefix The prefix of the table names
+     * @param cacheTtlMillis How long a cached record is used before it is reloaded in the background, 0 for as long
+     *                       as the player is online
+     * @param flushIntervalMillis How long changes are collected before they are written
+     * @param logger The logger for storage failures
+     */
+    public SqlPlayerSpawnStore(DataSource dataSource, SqlDialect dialect, String tablePrefix, long cacheTtlMillis,
+                               long flushIntervalMillis, Logger logger) {
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+        this.spawnTable = tablePrefix + "spawns";
+        this.changeTable = tablePrefix + "spawn_changes";
+        // Only needs to tell this server's own changes apart while it runs
+        this.serverId = UUID.randomUUID().toString();
+        this.cacheTtlMillis = Math.max(0, cacheTtlMillis);
+        this.flushIntervalMillis = Math.max(0, flushIntervalMillis);
+        this.logger = logger;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "PlayerSpawn-SQL");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Create the tables if needed and start polling for changes made by other servers
+     * @param pollIntervalMillis How often the change table is checked, 0 if no other server uses the database
+     * @throws SQLException If the database could not be reached
+     */
+    public void open(long pollIntervalMillis) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(dialect.createSpawnTable(spawnTable));
+            statement.executeUpdate(dialect.createChangeTable(changeTable));
+            try (ResultSet result = statement.executeQuery("SELECT MAX(id) FROM " + changeTable)) {
+                lastChangeId = result.next() ? result.getLong(1) : 0;
+            }
+        }
+        
+        if (pollIntervalMillis > 0) {
+            shared = true;
+            long interval = Math.max(100, pollIntervalMillis);
+            executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Set who is told about players whose spawns were changed by another server
+     * @param changeListener Receives the player's UUID, called on the storage thread
+     */
+    public void setChangeListener(Consumer<UUID> changeListener) {
+        this.changeListener = changeListener;
+    }
+    
+    @Override
+    public SpawnTable get(UUID playerUUID) {
+        CachedSpawns cached = cache.get(playerUUID);
+        if (cached == null) {
+            // Only reached when the player was not preloaded, for example for offline players
+            cached = new CachedSpawns(loadOrPending(playerUUID));
+            CachedSpawns existing = cache.putIfAbsent(playerUUID, cached);
+            if (existing != null) {
+                cached = existing;
+            }
+        } else if (cached.isExpired(cacheTtlMillis)) {
+            // Serve the old record now, the next lookup gets the fresh one
+            refreshLater(playerUUID);
+        }
+        return cached.spawns == null || cached.spawns.isEmpty() ? null : cached.spawns;
+    }
+    
+    @Override
+    public void preload(UUID playerUUID) {
+        if (!cache.containsKey(playerUUID)) {
+            cache.putIfAbsent(playerUUID, new CachedSpawns(loadOrPending(playerUUID)));
+        }
+    }
+    
+    @Override
+    public void set(UUID playerUUID, SpawnTable spawns) {
+        if (spawns == null) {
+            spawns = SpawnTable.empty();
+        }
+        
+        cache.put(playerUUID, new CachedSpawns(spawns));
+        pending.put(playerUUID, spawns);
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flushPending, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    @Override
+    public SpawnTable peek(UUID playerUUID) {
+        CachedSpawns cached = cache.get(playerUUID);
+        SpawnTable spawns = cached != null ? cached.spawns : loadOrPending(playerUUID);
+        return spawns == null || spawns.isEmpty() ? null : spawns;
+    }
+    
+    @Override
+    public CompletableFuture<Void> setAll(Map<UUID, SpawnTable> spawns) {
+        for (Map.Entry<UUID, SpawnTable> entry : spawns.entrySet()) {
+            SpawnTable table = entry.getValue() != null ? entry.getValue() : SpawnTable.empty();
+            cache.computeIfPresent(entry.getKey(), (uuid, cached) -> new CachedSpawns(table));
+            pending.put(entry.getKey(), table);
+        }
+        
+        // Written right away, the batch is already as large as a write-behind batch gets
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                flush();
+                done.complete(null);
+            } catch (SQLException e) {
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+    
+    @Override
+    public void forEach(BiConsumer<UUID, SpawnTable> action) throws IOException {
+        // Write pending changes first so the rows are complete
+        try {
+            CompletableFuture.runAsync(this::flushPending, executor).join();
+        } catch (RuntimeException e) {
+            throw new IOException("Could not write pending player spawns", e);
+        }
+        
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT uuid, spawns FROM " + spawnTable)) {
+            // Streams the rows, MySQL only with useCursorFetch set on the connection
+            statement.setFetchSize(500);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    UUID playerUUID;
+                    SpawnTable spawns;
+                    try {
+                        playerUUID = UUID.fromString(result.getString(1));
+                        spawns = SpawnTableCodec.decode(result.getBytes(2));
+                    } catch (IllegalArgumentException | IOException e) {
+                        logger.warning("Skipping malformed player spawn row " + result.getString(1) + ": "
+                                + e.getMessage());
+                        continue;
+                    }
+                    if (!spawns.isEmpty()) {
+                        action.accept(playerUUID, spawns);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not list player spawns", e);
+        }
+    }
+    
+    @Override
+    public void unload(UUID playerUUID) {
+        cache.remove(playerUUID);
+    }
+    
+    @Override
+    public void close() {
+        // Scheduled flushes still run, the change poll stops
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warning("Timed out waiting for player spawn writes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        try {
+            flush();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Could not save " + pending.size() + " player spawns", e);
+        }
+        cache.clear();
+    }
+    
+    /**
+     * Write pending changes from a scheduled flush, retrying later if the database is unavailable
+     */
+    private void flushPending() {
+        flushScheduled.set(false);
+        try {
+            flush();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Could not save " + pending.size() + " player spawns, retrying", e);
+            if (!executor.isShutdown() && flushScheduled.compareAndSet(false, true)) {
+                executor.schedule(this::flushPending, Math.max(flushIntervalMillis, 5000), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Write every pending record and log the changes in one transaction
+     * @throws SQLException If the batch could not be written, the records stay pending
+     */
+    private void flush() throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<UUID, SpawnTable> batch = new HashMap<>(pending);
+        long now = System.currentTimeMillis();
+        
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsert = connection.prepareStatement(
+                    dialect.upsert(spawnTable, "uuid", "spawns", "updated_at"));
+                 PreparedStatement delete = connection.prepareStatement(
+                         "DELETE FROM " + spawnTable + " WHERE uuid = ?");
+                 PreparedStatement change = connection.prepareStatement(
+                         "INSERT INTO " + changeTable + " (uuid, server, changed_at) VALUES (?, ?, ?)")) {
+                for (Map.Entry<UUID, SpawnTable> entry : batch.entrySet()) {
+                    String uuid = entry.getKey().toString();
+                    if (entry.getValue().isEmpty()) {
+                        delete.setString(1, uuid);
+                        delete.addBatch();
+                    } else {
+                        upsert.setString(1, uuid);
+                        upsert.setBytes(2, SpawnTableCodec.encode(entry.getValue()));
+                        upsert.setLong(3, now);
+                        upsert.addBatch();
+                    }
+                    if (shared) {
+                        change.setString(1, uuid);
+                        change.setString(2, serverId);
+                        change.setLong(3, now);
+                        change.addBatch();
+                    }
+                }
+                upsert.executeBatch();
+                delete.executeBatch();
+                change.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        
+        // Keep records that changed again while we were writing
+        for (Map.Entry<UUID, SpawnTable> entry : batch.entrySet()) {
+            pending.remove(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    /**
+     * Drop or reload the records other servers changed since the last poll.
+     * Ids are taken in insert order but committed in any order, so ids the poll skipped are checked again
+     * until they show up or their transaction can no longer be running.
+     */
+    private void poll() {
+        List<UUID> changed = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection()) {
+            pollGaps(connection, now, changed);
+            try (PreparedStatement statement = connection.prepareStatement("SELECT id, uuid, server FROM "
+                    + changeTable + " WHERE id > ? ORDER BY id LIMIT " + POLL_LIMIT)) {
+                statement.setLong(1, lastChangeId);
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        long id = result.getLong(1);
+                        for (long gap = Math.max(lastChangeId + 1, id - MAX_GAPS); gap < id; gap++) {
+                            gaps.put(gap, now);
+                        }
+                        lastChangeId = id;
+                        addChange(result, changed);
+                    }
+                }
+            }
+            while (gaps.size() > MAX_GAPS) {
+                gaps.pollFirstEntry();
+            }
+            
+            if (now - lastPrune >= PRUNE_INTERVAL_MILLIS) {
+                lastPrune = now;
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "DELETE FROM " + changeTable + " WHERE changed_at < ?")) {
+                    statement.setLong(1, now - CHANGE_RETENTION_MILLIS);
+                    statement.executeUpdate();
+                }
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Could not check for player spawn changes", e);
+            return;
+        }
+        
+        for (UUID playerUUID : changed) {
+            // Online players get the new record before their next lookup, others are simply dropped
+            if (cache.containsKey(playerUUID)) {
+                refresh(playerUUID);
+            }
+            changeListener.accept(playerUUID);
+        }
+    }
+    
+    /**
+     * Take the changes that were committed after later ids were polled, and forget gaps too old to fill
+     */
+    private void pollGaps(Connection connection, long now, List<UUID> changed) throws SQLException {
+        gaps.values().removeIf(missedAt -> now - missedAt >= GAP_TIMEOUT_MILLIS);
+        if (gaps.isEmpty()) {
+            return;
+        }
+        
+        List<Long> ids = new ArrayList<>(Math.min(gaps.size(), GAP_QUERY_LIMIT));
+        for (Iterator<Long> iterator = gaps.keySet().iterator(); iterator.hasNext() && ids.size() < GAP_QUERY_LIMIT; ) {
+            ids.add(iterator.next());
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT id, uuid, server FROM " + changeTable
+                + " WHERE id IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")")) {
+            for (int i = 0; i < ids.size(); i++) {
+                statement.setLong(i + 1, ids.get(i));
+            }
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    gaps.remove(result.getLong(1));
+                    addChange(result, changed);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Collect the player of a change row, unless this server made the change
+     */
+    private void addChange(ResultSet result, List<UUID> changed) throws SQLException {
+        if (!serverId.equals(result.getString(3))) {
+            changed.add(UUID.fromString(result.getString(2)));
+        }
+    }
+    
+    private void refreshLater(UUID playerUUID) {
+        if (refreshing.add(playerUUID)) {
+            try {
+                executor.execute(() -> {
+                    refreshing.remove(playerUUID);
+                    refresh(playerUUID);
+                });
+            } catch (RuntimeException e) {
+                // Closed
+                refreshing.remove(playerUUID);
+            }
+        }
+    }
+    
+    /**
+     * Reload a cached record, unless it has a local change that is not written yet
+     */
+    private void refresh(UUID playerUUID) {
+        SpawnTable spawns;
+        try {
+            spawns = load(playerUUID);
+        } catch (SQLException | IOException e) {
+            logger.log(Level.WARNING, "Could not reload spawn of player " + playerUUID, e);
+            return;
+        }
+        cache.computeIfPresent(playerUUID,
+                (uuid, cached) -> pending.containsKey(uuid) ? cached : new CachedSpawns(spawns));
+    }
+    
+    /**
+     * Get the unwritten record of a player, or read it from the database
+     * @param playerUUID The player's UUID
+     * @return The spawn table, or null if it could not be read
+     */
+    private SpawnTable loadOrPending(UUID playerUUID) {
+        SpawnTable spawns = pending.get(playerUUID);
+        if (spawns != null) {
+            return spawns;
+        }
+        try {
+            return load(playerUUID);
+        } catch (SQLException | IOException e) {
+            logger.log(Level.SEVERE, "Could not load spawn of player " + playerUUID, e);
+            return null;
+        }
+    }
+    
+    private SpawnTable load(UUID playerUUID) throws SQLException, IOException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT spawns FROM " + spawnTable + " WHERE uuid = ?")) {
+            statement.setString(1, playerUUID.toString());
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? SpawnTableCodec.decode(result.getBytes(1)) : SpawnTable.empty();
+            }
+        }
+    }
+    
+    /**
+     * A record in the local cache
+     */
+    private static final class CachedSpawns {
+        // Null if the record could not be read, it is then retried on the next lookup
+        private final SpawnTable spawns;
+        private final long loadedAt;
+        
+        private CachedSpawns(SpawnTable spawns) {
+            this.spawns = spawns;
+            this.loadedAt = spawns != null ? System.currentTimeMillis() : 0;
+        }
+        
+        private boolean isExpired(long ttlMillis) {
+            if (loadedAt == 0) {
+                return true;
+            }
+            return ttlMillis > 0 && System.currentTimeMillis() - loadedAt >= ttlMillis;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,46 @@
+package cn.ningmo.playerspawn.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Utility class for file operations
+ */
+public class FileUtils {
+    
+    /**
+     * Write a file through a temporary file and a rename, so readers never see a partial file
+     * @param file The target file
+     * @param data The file content
+     * @throws IOException If the file could not be written
+     */
+    public static void writeAtomically(File file, byte[] data) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temp, data);
+        moveAtomically(temp, target);
+    }
+    
+    /**
+     * Replace a file with another one, atomically where the file system supports it
+     * @param source The new file
+     * @param target The file to replace
+     * @throws IOException If the file could not be moved
+     */
+    public static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
\ No newline at end of file
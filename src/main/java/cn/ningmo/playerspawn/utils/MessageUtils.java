@@ -1,10 +1,15 @@
 package cn.ningmo.playerspawn.utils;
 
-import org.bukkit.ChatColor;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 import org.bukkit.command.CommandSender;
 import cn.ningmo.playerspawn.PlayerSpawn;
+import cn.ningmo.playerspawn.config.MessageTemplate;
+import cn.ningmo.playerspawn.config.MessageTemplates;
 
 public class MessageUtils {
+    // Whether command senders are Adventure audiences (Paper), checked once
+    private static final boolean ADVENTURE = isAdventureAvailable();
     
     /**
      * Send a message to a command sender
@@ -13,17 +18,16 @@ public class MessageUtils {
      * @param placeholders The placeholders to replace (format: placeholder1, value1, placeholder2, value2, ...)
      */
     public static void sendMessage(CommandSender sender, String path, String... placeholders) {
-        String message = getMessage(path);
+        MessageTemplate template = getTemplates().get(path);
         
-        // Replace placeholders
-        for (int i = 0; i < placeholders.length; i += 2) {
-            if (i + 1 < placeholders.length) {
-                message = message.replace(placeholders[i], placeholders[i + 1]);
-            }
+        // Messages without placeholders are converted to a component once instead of on every send
+        if (ADVENTURE && template.isStatic()) {
+            Components.send(sender, template);
+            return;
         }
         
         // Send message
-        sender.sendMessage(message);
+        sender.sendMessage(template.render(placeholders));
     }
     
     /**
@@ -32,10 +36,7 @@ public class MessageUtils {
      * @return The message with color codes translated
      */
     public static String getMessage(String path) {
-        String prefix = PlayerSpawn.getInstance().getConfigManager().getMessages().getString("prefix", "&8[&aPlayerSpawn&8] &r");
-        String message = PlayerSpawn.getInstance().getConfigManager().getMessages().getString(path, "&cMessage not found: " + path);
-        
-        return ChatColor.translateAlternateColorCodes('&', prefix + message);
+        return getTemplates().get(path).render();
     }
     
     /**
@@ -44,8 +45,28 @@ public class MessageUtils {
      * @return The message with color codes translated
      */
     public static String getMessageWithoutPrefix(String path) {
-        String message = PlayerSpawn.getInstance().getConfigManager().getMessages().getString(path, "&cMessage not found: " + path);
-        
-        return ChatColor.translateAlternateColorCodes('&', message);
+        return getTemplates().getWithoutPrefix(path).render();
+    }
+    
+    private static MessageTemplates getTemplates() {
+        return PlayerSpawn.getInstance().getConfigManager().getMessageTemplates();
+    }
+    
+    private static boolean isAdventureAvailable() {
+        try {
+            return Class.forName("net.kyori.adventure.audience.Audience").isAssignableFrom(CommandSender.class);
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Sends cached Adventure components, only loaded when Adventure is available
+     */
+    private static final class Components {
+        private static void send(CommandSender sender, MessageTemplate template) {
+            Component component = template.getComponent(LegacyComponentSerializer.legacySection()::deserialize);
+            sender.sendMessage(component);
+        }
     }
 }
\ No newline at end of file
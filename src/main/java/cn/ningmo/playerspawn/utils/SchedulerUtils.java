@@ -0,0 +1,234 @@
+package cn.ningmo.playerspawn.utils;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility class for scheduling tasks on the thread that owns what they touch.
+ * On Folia there is no main thread: entities and chunks belong to region threads and global state to the
+ * global region thread. On other servers every one of these runs on the main thread.
+ */
+public class SchedulerUtils {
+    // Folia ticks regions in parallel instead of the whole server on one thread
+    private static final boolean FOLIA = detectFolia();
+    private static final long MILLIS_PER_TICK = 50;
+    
+    /**
+     * Check if the server is Folia
+     * @return True if regions are ticked on separate threads
+     */
+    public static boolean isFolia() {
+        return FOLIA;
+    }
+    
+    /**
+     * Check if the current thread owns global state, the main thread or Folia's global region thread
+     * @return True if global state may be touched here
+     */
+    public static boolean isGlobalThread() {
+        return FOLIA ? Regions.isGlobalThread() : Bukkit.isPrimaryThread();
+    }
+    
+    /**
+     * Check if the current thread owns a chunk, so its blocks may be read here
+     * @param world The world
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     * @return True if the chunk may be touched here
+     */
+    public static boolean isOwnedByCurrentThread(World world, int chunkX, int chunkZ) {
+        return FOLIA ? Regions.isOwned(world, chunkX, chunkZ) : Bukkit.isPrimaryThread();
+    }
+    
+    /**
+     * Check if the current thread owns an entity, so its state may be read here
+     * @param entity The entity
+     * @return True if the entity may be touched here
+     */
+    public static boolean isOwnedByCurrentThread(Entity entity) {
+        return FOLIA ? Regions.isOwned(entity) : Bukkit.isPrimaryThread();
+    }
+    
+    /**
+     * Run a task on the thread owning global state, now if this is that thread
+     * @param plugin The plugin
+     * @param task The task
+     */
+    public static void runGlobal(Plugin plugin, Runnable task) {
+        if (isGlobalThread()) {
+            task.run();
+        } else if (FOLIA) {
+            Regions.runGlobal(plugin, task);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+    
+    /**
+     * Run a task repeatedly on the thread owning global state
+     * @param plugin The plugin
+     * @param task The task
+     * @param delay The delay in ticks before the first run
+     * @param period The period in ticks
+     * @return The task, for cancelling
+     */
+    public static Task runGlobalTimer(Plugin plugin, Runnable task, long delay, long period) {
+        if (FOLIA) {
+            return Regions.runGlobalTimer(plugin, task, delay, period);
+        }
+        BukkitTask bukkitTask = Bukkit.getScheduler().runTaskTimer(plugin, task, delay, period);
+        return bukkitTask::cancel;
+    }
+    
+    /**
+     * Run a task off the server threads
+     * @param plugin The plugin
+     * @param task The task
+     */
+    public static void runAsync(Plugin plugin, Runnable task) {
+        if (FOLIA) {
+            Regions.runAsync(plugin, task);
+        } else {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, task);
+        }
+    }
+    
+    /**
+     * Run a task repeatedly off the server threads
+     * @param plugin The plugin
+     * @param task The task
+     * @param delay The delay in ticks before the first run
+     * @param period The period in ticks
+     * @return The task, for cancelling
+     */
+    public static Task runAsyncTimer(Plugin plugin, Runnable task, long delay, long period) {
+        if (FOLIA) {
+            return Regions.runAsyncTimer(plugin, task, delay, period);
+        }
+        BukkitTask bukkitTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, task, delay, period);
+        return bukkitTask::cancel;
+    }
+    
+    /**
+     * Run a task on the thread owning an entity, now if this is that thread.
+     * On Folia the task is dropped if the entity is removed first, for a player when they quit.
+     * @param plugin The plugin
+     * @param entity The entity
+     * @param task The task
+     */
+    public static void runForEntity(Plugin plugin, Entity entity, Runnable task) {
+        if (isOwnedByCurrentThread(entity)) {
+            task.run();
+        } else if (FOLIA) {
+            Regions.runForEntity(plugin, entity, task, 1);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+    
+    /**
+     * Run a task on the thread owning an entity after a delay.
+     * The task is dropped if the entity is removed first, for a player when they quit.
+     * @param plugin The plugin
+     * @param entity The entity
+     * @param task The task
+     * @param delay The delay in ticks
+     */
+    public static void runForEntity(Plugin plugin, Entity entity, Runnable task, long delay) {
+        if (FOLIA) {
+            Regions.runForEntity(plugin, entity, task, delay);
+        } else {
+            Bukkit.getScheduler().runTaskLater(plugin, () -> {
+                if (entity.isValid()) {
+                    task.run();
+                }
+            }, delay);
+        }
+    }
+    
+    /**
+     * Run a task on the thread owning a chunk, now if this is that thread
+     * @param plugin The plugin
+     * @param world The world
+     * @param chunkX The chunk x coordinate
+     * @param chunkZ The chunk z coordinate
+     * @param task The task
+     */
+    public static void runAtChunk(Plugin plugin, World world, int chunkX, int chunkZ, Runnable task) {
+        if (isOwnedByCurrentThread(world, chunkX, chunkZ)) {
+            task.run();
+        } else if (FOLIA) {
+            Regions.runAtChunk(plugin, world, chunkX, chunkZ, task);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+    
+    private static boolean detectFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * A scheduled task that can be cancelled
+     */
+    public interface Task {
+        void cancel();
+    }
+    
+    /**
+     * Calls into Paper's region schedulers, only loaded on Folia
+     */
+    private static final class Regions {
+        private static boolean isGlobalThread() {
+            return Bukkit.isGlobalTickThread();
+        }
+        
+        private static boolean isOwned(World world, int chunkX, int chunkZ) {
+            return Bukkit.isOwnedByCurrentRegion(world, chunkX, chunkZ);
+        }
+        
+        private static boolean isOwned(Entity entity) {
+            return Bukkit.isOwnedByCurrentRegion(entity);
+        }
+        
+        private static void runGlobal(Plugin plugin, Runnable task) {
+            Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+        }
+        
+        private static Task runGlobalTimer(Plugin plugin, Runnable task, long delay, long period) {
+            // Folia rejects delays below one tick
+            ScheduledTask scheduled = Bukkit.getGlobalRegionScheduler().runAtFixedRate(plugin,
+                    ignored -> task.run(), Math.max(1, delay), Math.max(1, period));
+            return scheduled::cancel;
+        }
+        
+        private static void runAsync(Plugin plugin, Runnable task) {
+            Bukkit.getAsyncScheduler().runNow(plugin, ignored -> task.run());
+        }
+        
+        private static Task runAsyncTimer(Plugin plugin, Runnable task, long delay, long period) {
+            ScheduledTask scheduled = Bukkit.getAsyncScheduler().runAtFixedRate(plugin, ignored -> task.run(),
+                    delay * MILLIS_PER_TICK, period * MILLIS_PER_TICK, TimeUnit.MILLISECONDS);
+            return scheduled::cancel;
+        }
+        
+        private static void runForEntity(Plugin plugin, Entity entity, Runnable task, long delay) {
+            entity.getScheduler().execute(plugin, task, null, Math.max(1, delay));
+        }
+        
+        private static void runAtChunk(Plugin plugin, World world, int chunkX, int chunkZ, Runnable task) {
+            Bukkit.getRegionScheduler().execute(plugin, world, chunkX, chunkZ, task);
+        }
+    }
+}
\ No newline at end of file
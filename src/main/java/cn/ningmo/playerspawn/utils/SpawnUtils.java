@@ -3,23 +3,29 @@ package cn.ningmo.playerspawn.utils;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
-import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 
 import cn.ningmo.playerspawn.PlayerSpawn;
+import cn.ningmo.playerspawn.config.SpawnIndex;
+import cn.ningmo.playerspawn.config.SpawnIndex.GroupSpawn;
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.metrics.Metrics;
+import cn.ningmo.playerspawn.metrics.ResolutionTier;
+import cn.ningmo.playerspawn.session.PlayerSession;
+import cn.ningmo.playerspawn.session.SpawnResolution;
+import cn.ningmo.playerspawn.spawn.SafeSpawnFinder;
+import cn.ningmo.playerspawn.spawn.SpawnRegistry;
+import cn.ningmo.playerspawn.storage.LogoutLocationStore.LogoutLocation;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility class for managing player spawn points
  */
 public class SpawnUtils {
-    // Store logout locations in memory
-    private static final Map<UUID, Location> logoutLocations = new HashMap<>();
-    
     /**
      * Set a player's spawn point
      * @param player The player
@@ -28,25 +34,7 @@ public class SpawnUtils {
      * @param isServerSpawn Whether it's a server spawn or world spawn
      */
     public static void setPlayerSpawn(Player player, Location location, String worldName, boolean isServerSpawn) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
-        String path;
-        
-        if (isServerSpawn) {
-            path = "players." + player.getUniqueId() + ".server";
-        } else {
-            path = "players." + player.getUniqueId() + ".worlds." + worldName;
-        }
-        
-        // Save location
-        config.set(path + ".enabled", true);
-        config.set(path + ".location.world", location.getWorld().getName());
-        config.set(path + ".location.x", location.getX());
-        config.set(path + ".location.y", location.getY());
-        config.set(path + ".location.z", location.getZ());
-        config.set(path + ".location.yaw", location.getYaw());
-        config.set(path + ".location.pitch", location.getPitch());
-        
-        PlayerSpawn.getInstance().getConfigManager().saveConfig();
+        getRegistry().setPlayerSpawn(player.getUniqueId(), isServerSpawn ? null : worldName, SpawnPoint.of(location));
     }
     
     /**
@@ -57,7 +45,6 @@ public class SpawnUtils {
      * @param isServerSpawn Whether it's a server spawn or world spawn
      */
     public static void setGroupSpawn(String groupName, Location location, String worldName, boolean isServerSpawn) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
         String path;
         
         if (isServerSpawn) {
@@ -66,100 +53,136 @@ public class SpawnUtils {
             path = "groups." + groupName + ".worlds." + worldName;
         }
         
-        // Save location
-        config.set(path + ".enabled", true);
-        config.set(path + ".location.world", location.getWorld().getName());
-        config.set(path + ".location.x", location.getX());
-        config.set(path + ".location.y", location.getY());
-        config.set(path + ".location.z", location.getZ());
-        config.set(path + ".location.yaw", location.getYaw());
-        config.set(path + ".location.pitch", location.getPitch());
-        
-        PlayerSpawn.getInstance().getConfigManager().saveConfig();
+        saveSpawnToConfig(path, location);
     }
     
     /**
-     * Get a player's spawn location
+     * Get a player's spawn location, without counting the player on it if the spawn is spread
      * @param player The player
      * @param world The world (null for server spawn)
      * @return The spawn location, or null if not set
      */
     public static Location getPlayerSpawn(Player player, World world) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
-        UUID playerUUID = player.getUniqueId();
-        String path;
-        
-        // Check if player has a specific spawn point for this world
-        if (world != null) {
-            path = "players." + playerUUID + ".worlds." + world.getName();
-            if (config.getBoolean(path + ".enabled", false)) {
-                return getLocationFromConfig(config, path + ".location");
+        return lookupPlayerSpawn(player, world, false);
+    }
+    
+    /**
+     * Get the spawn location a player is about to be sent to, counting them on it if the spawn is spread
+     * @param player The player
+     * @param world The world (null for server spawn)
+     * @return The spawn location, or null if not set
+     */
+    public static Location placePlayerSpawn(Player player, World world) {
+        return lookupPlayerSpawn(player, world, true);
+    }
+    
+    private static Location lookupPlayerSpawn(Player player, World world, boolean placed) {
+        Metrics metrics = PlayerSpawn.getInstance().getMetrics();
+        long start = metrics.start();
+        String worldName = world != null ? world.getName() : null;
+        
+        // Resolved once per world and kept in the session until something it depends on changes
+        SpawnResolution resolution = getSession(player).getSpawn(worldName, name -> resolvePlayerSpawn(player, name));
+        Location location = place(resolution, placed ? player : null);
+        metrics.recordResolution(resolution.getTier(), start);
+        return location;
+    }
+    
+    /**
+     * Get a player's session with the resolutions that no longer apply dropped
+     * @param player The player
+     * @return The session
+     */
+    private static PlayerSession getSession(Player player) {
+        PlayerSpawn plugin = PlayerSpawn.getInstance();
+        SpawnIndex index = plugin.getSpawnRegistry().getIndex();
+        PlayerSession session = plugin.getSessionManager().get(player);
+        session.validate(index, plugin.getGroupResolver().getGroups(player, index));
+        return session;
+    }
+    
+    /**
+     * Resolve which spawn point applies to a player
+     * @param player The player
+     * @param worldName The world name (null for server spawn)
+     * @return The tier that answered and its spawn point
+     */
+    private static SpawnResolution resolvePlayerSpawn(Player player, String worldName) {
+        SpawnIndex index = getRegistry().getIndex();
+        SpawnPoint point;
+        
+        // Check if player has a specific spawn point for this world or a server-wide one
+        SpawnTable playerSpawns = getRegistry().getPlayerSpawns(player.getUniqueId());
+        if (playerSpawns != null) {
+            point = findSpawn(playerSpawns, worldName);
+            if (point != null) {
+                return SpawnResolution.of(ResolutionTier.PLAYER, point);
             }
         }
         
-        // Check if player has a server-wide spawn point
-        path = "players." + playerUUID + ".server";
-        if (config.getBoolean(path + ".enabled", false)) {
-            return getLocationFromConfig(config, path + ".location");
-        }
-        
-        // Check if player belongs to any groups with spawn points
-        ConfigurationSection groupsSection = config.getConfigurationSection("groups");
-        if (groupsSection != null) {
-            for (String groupName : groupsSection.getKeys(false)) {
-                // Check if player has permission for this group
-                if (player.hasPermission("playerspawn.group." + groupName)) {
-                    // Check for world-specific group spawn
-                    if (world != null) {
-                        path = "groups." + groupName + ".worlds." + world.getName();
-                        if (config.getBoolean(path + ".enabled", false)) {
-                            return getLocationFromConfig(config, path + ".location");
-                        }
-                    }
-                    
-                    // Check for server-wide group spawn
-                    path = "groups." + groupName + ".server";
-                    if (config.getBoolean(path + ".enabled", false)) {
-                        return getLocationFromConfig(config, path + ".location");
-                    }
-                }
+        // Check if player belongs to any groups with spawn points, highest priority first
+        for (GroupSpawn group : PlayerSpawn.getInstance().getGroupResolver().getGroups(player, index)) {
+            point = findSpawn(group.getSpawns(), worldName);
+            if (point != null) {
+                return SpawnResolution.of(ResolutionTier.GROUP, point);
             }
         }
         
         // Check if player is a Floodgate player (Bedrock player)
         if (isFloodgatePlayer(player)) {
-            // Check for Floodgate-specific spawn points
-            if (world != null) {
-                path = "floodgate.worlds." + world.getName();
-                if (config.getBoolean(path + ".enabled", false)) {
-                    return getLocationFromConfig(config, path + ".location");
-                }
-            }
-            
-            path = "floodgate.server";
-            if (config.getBoolean(path + ".enabled", false)) {
-                return getLocationFromConfig(config, path + ".location");
+            point = findSpawn(index.getFloodgate(), worldName);
+            if (point != null) {
+                return SpawnResolution.of(ResolutionTier.FLOODGATE, point);
             }
         }
         
-        // Check for default world spawn
-        if (world != null) {
-            path = "default.worlds." + world.getName();
-            if (config.getBoolean(path + ".enabled", false)) {
-                return getLocationFromConfig(config, path + ".location");
-            }
+        // Check for default world spawn, then default server spawn
+        point = findSpawn(index.getDefaults(), worldName);
+        if (point != null) {
+            return SpawnResolution.of(ResolutionTier.DEFAULT, point);
         }
         
-        // Check for default server spawn
-        path = "default.server";
-        if (config.getBoolean(path + ".enabled", false)) {
-            return getLocationFromConfig(config, path + ".location");
+        // No spawn point is set
+        return SpawnResolution.NONE;
+    }
+    
+    /**
+     * Place a player on the first candidate of a resolution whose world is loaded
+     * @param resolution The resolution
+     * @param player The player, or null to pick a candidate without counting anyone on it
+     * @return The location, or null if no candidate's world is loaded
+     */
+    private static Location place(SpawnResolution resolution, Player player) {
+        for (SpawnPoint point : resolution.getCandidates()) {
+            Location location = place(point, player);
+            if (location != null) {
+                return location;
+            }
         }
-        
-        // Return null if no spawn point is set
         return null;
     }
     
+    /**
+     * Find the world-specific spawn in a table, falling back to the server-wide spawn
+     * @param table The spawn table
+     * @param worldName The world name (null for server spawn)
+     * @return The spawn point, or null if neither is enabled
+     */
+    private static SpawnPoint findSpawn(SpawnTable table, String worldName) {
+        SpawnPoint point = table.getWorld(worldName);
+        return point != null ? point : table.getServer();
+    }
+    
+    /**
+     * Get the location of a spawn point for a player, spreading players over the candidates of spread spawns
+     * @param point The spawn point
+     * @param player The player, or null to pick a candidate without counting anyone on it
+     * @return The location, or null if the world is not loaded
+     */
+    private static Location place(SpawnPoint point, Player player) {
+        return PlayerSpawn.getInstance().getSpawnBalancer().place(point, player);
+    }
+    
     /**
      * Get a location from a configuration section
      * @param config The configuration
@@ -201,6 +224,20 @@ public class SpawnUtils {
         config.set(path + ".pitch", location.getPitch());
     }
     
+    /**
+     * Enable a spawn in config.yml, recompile the spawn index and schedule a save
+     * @param path The path holding the enabled flag and location section
+     * @param location The location to save
+     */
+    private static void saveSpawnToConfig(String path, Location location) {
+        // Replaces any spread so the command sets a single point
+        getRegistry().setConfigSpawn(path, location);
+    }
+    
+    private static SpawnRegistry getRegistry() {
+        return PlayerSpawn.getInstance().getSpawnRegistry();
+    }
+    
     /**
      * Check if a player is a Floodgate player (Bedrock player)
      * @param player The player to check
@@ -212,15 +249,8 @@ public class SpawnUtils {
             return false;
         }
         
-        // Check if Floodgate is installed
-        if (!Bukkit.getPluginManager().isPluginEnabled("floodgate")) {
-            return false;
-        }
-        
-        // Check if player has the floodgate prefix in their UUID
-        // Floodgate UUIDs start with 00000000-0000-0000-
-        String uuid = player.getUniqueId().toString();
-        return uuid.startsWith("00000000-0000-0000-");
+        // Resolved once at join through the Floodgate API
+        return PlayerSpawn.getInstance().getSessionManager().get(player).isFloodgate();
     }
     
     /**
@@ -230,7 +260,6 @@ public class SpawnUtils {
      * @param isServerSpawn Whether it's a server spawn or world spawn
      */
     public static void setFloodgateSpawn(Location location, String worldName, boolean isServerSpawn) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
         String path;
         
         if (isServerSpawn) {
@@ -239,16 +268,7 @@ public class SpawnUtils {
             path = "floodgate.worlds." + worldName;
         }
         
-        // Save location
-        config.set(path + ".enabled", true);
-        config.set(path + ".location.world", location.getWorld().getName());
-        config.set(path + ".location.x", location.getX());
-        config.set(path + ".location.y", location.getY());
-        config.set(path + ".location.z", location.getZ());
-        config.set(path + ".location.yaw", location.getYaw());
-        config.set(path + ".location.pitch", location.getPitch());
-        
-        PlayerSpawn.getInstance().getConfigManager().saveConfig();
+        saveSpawnToConfig(path, location);
     }
     
     /**
@@ -256,14 +276,7 @@ public class SpawnUtils {
      * @param location The location
      */
     public static void setFloodgateNewPlayerSpawn(Location location) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
-        String path = "floodgate.new_player";
-        
-        // Save location
-        config.set(path + ".enabled", true);
-        saveLocationToConfig(config, path + ".location", location);
-        
-        PlayerSpawn.getInstance().getConfigManager().saveConfig();
+        saveSpawnToConfig("floodgate.new_player", location);
     }
     
     /**
@@ -273,7 +286,6 @@ public class SpawnUtils {
      * @param isServerSpawn Whether it's a server spawn or world spawn
      */
     public static void setFloodgateRespawn(Location location, String worldName, boolean isServerSpawn) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
         String path;
         
         if (isServerSpawn) {
@@ -282,44 +294,61 @@ public class SpawnUtils {
             path = "floodgate.respawn.worlds." + worldName;
         }
         
-        // Save location
-        config.set(path + ".enabled", true);
-        saveLocationToConfig(config, path + ".location", location);
-        
-        PlayerSpawn.getInstance().getConfigManager().saveConfig();
+        saveSpawnToConfig(path, location);
     }
     
     /**
-     * Get the new player spawn location
+     * Get the new player spawn location, without counting the player on it if the spawn is spread
      * @param player The player to get spawn for (can be null for general new player spawn)
      * @return The new player spawn location, or null if not set
      */
     public static Location getNewPlayerSpawn(Player player) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
+        return PlayerSpawn.getInstance().getSafeSpawnFinder().makeSafe(resolveNewPlayerSpawn(player, null));
+    }
+    
+    /**
+     * Get the new player spawn location a player is about to be sent to, counting them on it if the spawn is spread
+     * @param player The joining player
+     * @return The new player spawn location, or null if not set
+     */
+    public static Location placeNewPlayerSpawn(Player player) {
+        return PlayerSpawn.getInstance().getSafeSpawnFinder().makeSafe(resolveNewPlayerSpawn(player, player));
+    }
+    
+    /**
+     * Resolve the configured new player spawn location
+     * @param player The player (may be null)
+     * @param placed The player to count on a spread spawn, or null to only look it up
+     * @return The new player spawn location, or null if not set
+     */
+    private static Location resolveNewPlayerSpawn(Player player, Player placed) {
+        SpawnIndex index = getRegistry().getIndex();
         
         // Check if player is a Floodgate player (Bedrock player) and if Floodgate spawn is enabled
-        if (player != null && isFloodgatePlayer(player) && config.getBoolean("floodgate.new_player.enabled", false)) {
+        SpawnPoint floodgateNewPlayer = index.getFloodgateNewPlayer();
+        if (player != null && floodgateNewPlayer != null && isFloodgatePlayer(player)) {
             // Return the Floodgate new player spawn location
-            Location floodgateSpawn = getLocationFromConfig(config, "floodgate.new_player.location");
+            Location floodgateSpawn = place(floodgateNewPlayer, placed);
             if (floodgateSpawn != null) {
                 return floodgateSpawn;
             }
         }
         
         // Check if new player spawn is enabled
-        if (!config.getBoolean("new_player.enabled", false)) {
+        if (!index.isNewPlayerEnabled()) {
             // Use default spawn if not specified
-            if (config.getBoolean("new_player.use_default_if_not_specified", true)) {
+            if (index.isNewPlayerUseDefault()) {
                 // Check for default server spawn
-                if (config.getBoolean("default.server.enabled", false)) {
-                    return getLocationFromConfig(config, "default.server.location");
+                SpawnPoint defaultServer = index.getDefaults().getServer();
+                if (defaultServer != null) {
+                    return place(defaultServer, placed);
                 }
             }
             return null;
         }
         
         // Return the new player spawn location
-        return getLocationFromConfig(config, "new_player.location");
+        return place(index.getNewPlayer(), placed);
     }
     
     /**
@@ -331,65 +360,109 @@ public class SpawnUtils {
     }
     
     /**
-     * Get the respawn location for a player
+     * Get the respawn location for a player, without counting the player on it if the spawn is spread
      * @param player The player
      * @param world The world the player died in
      * @return The respawn location, or null to use the default respawn location
      */
     public static Location getRespawnLocation(Player player, World world) {
-        FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
+        return lookupRespawnLocation(player, world, false);
+    }
+    
+    /**
+     * Get the location a respawning player is sent to, counting them on it if the spawn is spread
+     * @param player The player
+     * @param world The world the player died in
+     * @return The respawn location, or null to use the default respawn location
+     */
+    public static Location placeRespawnLocation(Player player, World world) {
+        return lookupRespawnLocation(player, world, true);
+    }
+    
+    private static Location lookupRespawnLocation(Player player, World world, boolean placed) {
+        SafeSpawnFinder safeSpawnFinder = PlayerSpawn.getInstance().getSafeSpawnFinder();
+        String worldName = world != null ? world.getName() : null;
+        
+        // Kept per world until the player's spawns, groups, the spawn index or the terrain around it change
+        return getSession(player).getRespawnLocation(worldName, safeSpawnFinder.getGeneration(),
+                name -> safeSpawnFinder.makeSafe(resolveRespawnLocation(player, world, placed)),
+                location -> safeSpawnFinder.isFinal(location) && isRespawnFixed(player, worldName));
+    }
+    
+    /**
+     * Check whether a player respawns on the same spot on every death in a world, so the location may be kept
+     * @param player The player
+     * @param worldName The world name (null for server spawn)
+     * @return False if a spawn point the respawn may come from is spread
+     */
+    private static boolean isRespawnFixed(Player player, String worldName) {
+        PlayerSession session = PlayerSpawn.getInstance().getSessionManager().get(player);
+        if (getRegistry().getIndex().isRespawnUsePlayerSpawn()
+                && !session.getSpawn(worldName, name -> resolvePlayerSpawn(player, name)).isFixed()) {
+            return false;
+        }
+        return session.getRespawn(worldName, name -> resolveRespawn(player, name)).isFixed();
+    }
+    
+    /**
+     * Resolve the configured respawn location
+     * @param player The player
+     * @param world The world the player died in
+     * @param placed Whether the player is counted on a spread spawn
+     * @return The respawn location, or null to use the default respawn location
+     */
+    private static Location resolveRespawnLocation(Player player, World world, boolean placed) {
+        SpawnIndex index = getRegistry().getIndex();
         
         // Check if respawn is enabled
-        if (!config.getBoolean("respawn.enabled", false)) {
+        if (!index.isRespawnEnabled()) {
             return null;
         }
         
         // Check if we should use player spawn
-        if (config.getBoolean("respawn.use_player_spawn", true)) {
-            Location playerSpawn = getPlayerSpawn(player, world);
+        if (index.isRespawnUsePlayerSpawn()) {
+            Location playerSpawn = lookupPlayerSpawn(player, world, placed);
             if (playerSpawn != null) {
                 return playerSpawn;
             }
         }
         
-        // Check if player is a Floodgate player (Bedrock player)
+        String worldName = world != null ? world.getName() : null;
+        SpawnResolution resolution = getSession(player).getRespawn(worldName, name -> resolveRespawn(player, name));
+        return place(resolution, placed ? player : null);
+    }
+    
+    /**
+     * Resolve which configured respawn points apply to a player, in the order they are tried
+     * @param player The player
+     * @param worldName The world name (null for server spawn)
+     * @return The respawn points
+     */
+    private static SpawnResolution resolveRespawn(Player player, String worldName) {
+        SpawnIndex index = getRegistry().getIndex();
+        List<SpawnPoint> candidates = new ArrayList<>(3);
+        
+        // Check for Floodgate-specific respawn points, then the server-wide Floodgate respawn
         if (isFloodgatePlayer(player)) {
-            // Check for Floodgate-specific respawn points
-            if (world != null) {
-                String worldPath = "floodgate.respawn.worlds." + world.getName();
-                if (config.getBoolean(worldPath + ".enabled", false)) {
-                    return getLocationFromConfig(config, worldPath + ".location");
-                }
-            }
-            
-            // Check for server-wide Floodgate respawn
-            if (config.getBoolean("floodgate.respawn.server.enabled", false)) {
-                return getLocationFromConfig(config, "floodgate.respawn.server.location");
-            }
+            addIfSet(candidates, findSpawn(index.getFloodgateRespawn(), worldName));
         }
         
-        // Check for world-specific respawn
-        if (world != null) {
-            String worldPath = "respawn.worlds." + world.getName();
-            if (config.getBoolean(worldPath + ".enabled", false)) {
-                return getLocationFromConfig(config, worldPath + ".location");
-            }
-        }
+        // Check for world-specific respawn, then server-wide respawn
+        addIfSet(candidates, findSpawn(index.getRespawn(), worldName));
         
-        // Check for server-wide respawn
-        if (config.getBoolean("respawn.server.enabled", false)) {
-            return getLocationFromConfig(config, "respawn.server.location");
+        // Use default server spawn if not specified
+        if (index.isRespawnUseDefault()) {
+            addIfSet(candidates, index.getDefaults().getServer());
         }
         
-        // Use default spawn if not specified
-        if (config.getBoolean("respawn.use_default_if_not_specified", true)) {
-            // Check for default server spawn
-            if (config.getBoolean("default.server.enabled", false)) {
-                return getLocationFromConfig(config, "default.server.location");
-            }
+        // Respawns are not recorded per tier, the player spawn lookup above records its own
+        return SpawnResolution.of(ResolutionTier.DEFAULT, candidates.toArray(new SpawnPoint[0]));
+    }
+    
+    private static void addIfSet(List<SpawnPoint> candidates, SpawnPoint point) {
+        if (point != null) {
+            candidates.add(point);
         }
-        
-        return null;
     }
     
     /**
@@ -401,18 +474,20 @@ public class SpawnUtils {
         
         FileConfiguration config = PlayerSpawn.getInstance().getConfigManager().getConfig();
         if (config.getBoolean("on_rejoin.save_logout_location", true)) {
-            logoutLocations.put(player.getUniqueId(), player.getLocation());
+            PlayerSpawn.getInstance().getLogoutLocationStore().put(player.getUniqueId(), player.getLocation());
         }
     }
     
     /**
      * Get a player's logout location
      * @param player The player
-     * @return The logout location, or null if not found
+     * @return The logout location, or null if not found or its world is not loaded
      */
     public static Location getLogoutLocation(Player player) {
         if (player == null) return null;
         
-        return logoutLocations.remove(player.getUniqueId());
+        // Read once when the session was opened
+        LogoutLocation logoutLocation = PlayerSpawn.getInstance().getSessionManager().get(player).getLogoutLocation();
+        return logoutLocation != null ? logoutLocation.toLocation() : null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+package cn.ningmo.playerspawn.utils;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import cn.ningmo.playerspawn.PlayerSpawn;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Utility class for teleporting players without blocking on chunk loads where the server allows it
+ */
+public class TeleportUtils {
+    // Paper exposes async chunk loading and teleports, plain Spigot does not
+    private static final boolean ASYNC_SUPPORTED = detectAsyncSupport();
+    
+    /**
+     * Check if the server supports async chunk loading and teleports
+     * @return True on Paper and its forks
+     */
+    public static boolean isAsyncSupported() {
+        return ASYNC_SUPPORTED;
+    }
+    
+    /**
+     * Teleport a player now.
+     * In async mode the player is moved once the preload completes, without blocking the main thread.
+     * Folia only supports async teleports, so they are always used there.
+     * @param player The player
+     * @param location The target location
+     * @param async Whether to teleport asynchronously (ignored on Spigot)
+     * @param preload The chunk preload started for this teleport
+     * @param afterTeleport Run on the player's thread after a successful teleport (may be null)
+     */
+    public static void teleport(Player player, Location location, boolean async, CompletableFuture<Void> preload,
+                                Runnable afterTeleport) {
+        if (!SchedulerUtils.isFolia() && (!async || !ASYNC_SUPPORTED)) {
+            if (player.teleport(location, PlayerTeleportEvent.TeleportCause.PLUGIN) && afterTeleport != null) {
+                afterTeleport.run();
+            }
+            return;
+        }
+        
+        preload.whenComplete((ignored, error) -> runForPlayer(player, () -> {
+            if (!player.isOnline()) {
+                return;
+            }
+            player.teleportAsync(location, PlayerTeleportEvent.TeleportCause.PLUGIN).thenAccept(success -> {
+                if (success && afterTeleport != null) {
+                    runForPlayer(player, afterTeleport);
+                }
+            });
+        }));
+    }
+    
+    /**
+     * Load the chunks around a location asynchronously
+     * @param location The center location
+     * @param radius The radius in chunks, 0 for only the center chunk
+     * @return A future completed once all chunks are loaded
+     */
+    public static CompletableFuture<Void> preloadChunks(Location location, int radius) {
+        World world = location.getWorld();
+        if (world == null || !ASYNC_SUPPORTED) {
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        int centerX = location.getBlockX() >> 4;
+        int centerZ = location.getBlockZ() >> 4;
+        int size = radius * 2 + 1;
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[size * size];
+        int i = 0;
+        for (int x = centerX - radius; x <= centerX + radius; x++) {
+            for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+                futures[i++] = world.getChunkAtAsync(x, z);
+            }
+        }
+        return CompletableFuture.allOf(futures);
+    }
+    
+    private static void runForPlayer(Player player, Runnable task) {
+        SchedulerUtils.runForEntity(PlayerSpawn.getInstance(), player, task);
+    }
+    
+    private static boolean detectAsyncSupport() {
+        try {
+            Entity.class.getMethod("teleportAsync", Location.class, PlayerTeleportEvent.TeleportCause.class);
+            World.class.getMethod("getChunkAtAsync", int.class, int.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
\ No newline at end of file
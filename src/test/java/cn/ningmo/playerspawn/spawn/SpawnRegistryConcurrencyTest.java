@@ -0,0 +1,175 @@
+package cn.ningmo.playerspawn.spawn;
+
+import cn.ningmo.playerspawn.PlayerSpawn;
+import cn.ningmo.playerspawn.config.ConfigManager;
+import cn.ningmo.playerspawn.config.SpawnIndex.GroupSpawn;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import cn.ningmo.playerspawn.metrics.Metrics;
+import cn.ningmo.playerspawn.session.PlayerSessionManager;
+import cn.ningmo.playerspawn.storage.FilePlayerSpawnStore;
+import cn.ningmo.playerspawn.storage.PlayerSpawnStore;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Many threads writing player and config spawns through the registry at once, next to readers.
+ * Every writer owns one slot, so after the run each slot must hold the last value its writer wrote;
+ * anything else means a concurrent write of another slot overwrote it.
+ */
+class SpawnRegistryConcurrencyTest {
+    private static final int WRITERS = 8;
+    private static final int READERS = 4;
+    // Few players, so writers keep colliding on the same tables
+    private static final int PLAYERS = 16;
+    private static final int PLAYER_WRITES = 400;
+    private static final int CONFIG_WRITES = 50;
+    
+    @TempDir
+    Path dataFolder;
+    
+    private PlayerSpawnStore store;
+    private ConfigManager configManager;
+    private SpawnRegistry registry;
+    private World world;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.write(dataFolder.resolve("config.yml"), "save:\n  delay: 0\n".getBytes(StandardCharsets.UTF_8));
+        Logger logger = Logger.getLogger("PlayerSpawnTest");
+        store = new FilePlayerSpawnStore(dataFolder.resolve("players").toFile(), logger);
+        
+        PlayerSpawn plugin = mock(PlayerSpawn.class);
+        when(plugin.getDataFolder()).thenReturn(dataFolder.toFile());
+        when(plugin.getLogger()).thenReturn(logger);
+        when(plugin.getMetrics()).thenReturn(new Metrics());
+        when(plugin.getPlayerSpawnStore()).thenReturn(store);
+        when(plugin.getSessionManager()).thenReturn(new PlayerSessionManager());
+        configManager = new ConfigManager(plugin);
+        when(plugin.getConfigManager()).thenReturn(configManager);
+        configManager.loadConfig();
+        registry = new SpawnRegistry(plugin);
+        
+        world = mock(World.class);
+        when(world.getName()).thenReturn("world");
+    }
+    
+    @AfterEach
+    void tearDown() {
+        store.close();
+        configManager.shutdown();
+    }
+    
+    @Test
+    void concurrentPlayerWritesAreNotLost() throws Exception {
+        UUID[] players = new UUID[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        
+        run(writer -> () -> {
+            String slot = "world_" + writer;
+            for (int value = 1; value <= PLAYER_WRITES; value++) {
+                UUID player = players[value % PLAYERS];
+                registry.setPlayerSpawn(player, slot, new SpawnPoint(slot, value, 64, 0, 0, 0));
+            }
+            return null;
+        }, reader -> () -> {
+            for (int i = 0; i < PLAYER_WRITES; i++) {
+                registry.getPlayerSpawn(players[i % PLAYERS], "world_0");
+            }
+            return null;
+        });
+        
+        for (int i = 0; i < PLAYERS; i++) {
+            for (int writer = 0; writer < WRITERS; writer++) {
+                SpawnPoint point = registry.getPlayerSpawns(players[i]).getWorld("world_" + writer);
+                assertNotNull(point, "Lost spawn of writer " + writer + " for player " + i);
+                assertEquals(lastValue(PLAYER_WRITES, i), (long) point.getX(),
+                        "Lost update of writer " + writer + " for player " + i);
+            }
+        }
+    }
+    
+    @Test
+    void concurrentConfigWritesAreNotLost() throws Exception {
+        run(writer -> () -> {
+            for (int value = 1; value <= CONFIG_WRITES; value++) {
+                registry.setConfigSpawn("groups.group" + writer + ".server", new Location(world, value, 64, 0));
+            }
+            return null;
+        }, reader -> () -> {
+            for (int i = 0; i < CONFIG_WRITES; i++) {
+                registry.getIndex().getGroups();
+            }
+            return null;
+        });
+        
+        Map<String, GroupSpawn> groups = registry.getIndex().getGroups().stream()
+                .collect(Collectors.toMap(GroupSpawn::getName, Function.identity()));
+        for (int writer = 0; writer < WRITERS; writer++) {
+            GroupSpawn group = groups.get("group" + writer);
+            assertNotNull(group, "Lost spawn of group " + writer);
+            assertEquals(CONFIG_WRITES, (long) group.getSpawns().getServer().getX(),
+                    "Lost update of group " + writer);
+        }
+    }
+    
+    /**
+     * Get the last value written for a player, whose writes are every PLAYERS-th value
+     */
+    private static long lastValue(int writes, int player) {
+        return writes - Math.floorMod(writes - player, PLAYERS);
+    }
+    
+    /**
+     * Start all writers and readers at once and rethrow the first failure
+     */
+    private static void run(Function<Integer, Callable<Void>> writers, Function<Integer, Callable<Void>> readers)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < WRITERS + READERS; i++) {
+                Callable<Void> task = i < WRITERS ? writers.apply(i) : readers.apply(i - WRITERS);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
\ No newline at end of file
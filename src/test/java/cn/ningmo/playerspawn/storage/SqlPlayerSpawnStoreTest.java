@@ -0,0 +1,157 @@
+package cn.ningmo.playerspawn.storage;
+
+import cn.ningmo.playerspawn.config.SpawnIndex.SpawnTable;
+import cn.ningmo.playerspawn.config.SpawnPoint;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The SQL store against an in-memory H2 database, with two store instances standing in for two servers
+ */
+class SqlPlayerSpawnStoreTest {
+    private static final Logger LOGGER = Logger.getLogger("PlayerSpawnTest");
+    private static final long TIMEOUT_MILLIS = 10000;
+    // Long enough that nothing is written before the test asks for it
+    private static final long NO_FLUSH = 60000;
+    
+    private JdbcDataSource dataSource;
+    private final List<SqlPlayerSpawnStore> stores = new ArrayList<>();
+    
+    @BeforeEach
+    void setUp() {
+        dataSource = new JdbcDataSource();
+        // Kept until shut down, although every store connection is closed in between
+        dataSource.setURL("jdbc:h2:mem:spawns-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+    }
+    
+    @AfterEach
+    void tearDown() throws SQLException {
+        for (SqlPlayerSpawnStore store : stores) {
+            store.close();
+        }
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+    
+    @Test
+    void writesAreCollectedUntilFlushed() throws Exception {
+        SqlPlayerSpawnStore store = open(0, NO_FLUSH, 0);
+        UUID player = UUID.randomUUID();
+        
+        for (int x = 1; x <= 5; x++) {
+            store.set(player, table(x));
+        }
+        assertEquals(0, storedX(player), "Written before the flush interval");
+        assertEquals(5, (long) store.get(player).getWorld("world").getX(), "Own write not served from the cache");
+        
+        // A batch writes everything pending along with it
+        store.setAll(Collections.emptyMap()).join();
+        assertEquals(5, storedX(player), "Repeated writes did not collapse into the latest record");
+        
+        store.set(player, table(6));
+        store.close();
+        stores.remove(store);
+        assertEquals(6, storedX(player), "Pending write lost on close");
+    }
+    
+    @Test
+    void expiredRecordsAreReloaded() throws Exception {
+        long ttl = 200;
+        SqlPlayerSpawnStore reader = open(ttl, NO_FLUSH, 0);
+        SqlPlayerSpawnStore writer = open(0, NO_FLUSH, 0);
+        UUID player = UUID.randomUUID();
+        writer.setAll(Collections.singletonMap(player, table(1))).join();
+        
+        assertEquals(1, (long) reader.get(player).getWorld("world").getX(), "Not read through to the database");
+        writer.setAll(Collections.singletonMap(player, table(2))).join();
+        assertEquals(1, (long) reader.get(player).getWorld("world").getX(), "Cached record not used within the TTL");
+        
+        Thread.sleep(ttl);
+        // The expired record is served once more while it is reloaded in the background
+        await(() -> reader.get(player).getWorld("world").getX() == 2, "Expired record never reloaded");
+    }
+    
+    @Test
+    void changesReachOtherServers() throws Exception {
+        // Cached records never expire, so only the change table can bring the new one
+        SqlPlayerSpawnStore other = open(0, NO_FLUSH, 100);
+        SqlPlayerSpawnStore writer = open(0, NO_FLUSH, 100);
+        Set<UUID> notified = ConcurrentHashMap.newKeySet();
+        other.setChangeListener(notified::add);
+        Set<UUID> notifiedWriter = ConcurrentHashMap.newKeySet();
+        writer.setChangeListener(notifiedWriter::add);
+        
+        UUID player = UUID.randomUUID();
+        other.preload(player);
+        assertNull(other.get(player), "Player without spawns has a record");
+        
+        writer.setAll(Collections.singletonMap(player, table(3))).join();
+        await(() -> notified.contains(player), "Other server not told about the change");
+        SpawnTable spawns = other.get(player);
+        assertNotNull(spawns, "Other server still serves the old record");
+        assertEquals(3, (long) spawns.getWorld("world").getX(), "Other server still serves the old record");
+        assertTrue(notifiedWriter.isEmpty(), "Writer told about its own change");
+    }
+    
+    private SqlPlayerSpawnStore open(long cacheTtlMillis, long flushIntervalMillis, long pollIntervalMillis)
+            throws SQLException {
+        SqlPlayerSpawnStore store = new SqlPlayerSpawnStore(dataSource, SqlDialect.H2, "test_", cacheTtlMillis,
+                flushIntervalMillis, LOGGER);
+        store.open(pollIntervalMillis);
+        stores.add(store);
+        return store;
+    }
+    
+    private static SpawnTable table(int x) {
+        return SpawnTable.empty().with("world", new SpawnPoint("world", x, 64, 0, 0, 0));
+    }
+    
+    /**
+     * Read a player's x coordinate in world from the database, bypassing every cache
+     * @return The x coordinate, or 0 if no row is stored
+     */
+    private long storedX(UUID player) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT spawns FROM test_spawns WHERE uuid = ?")) {
+            statement.setString(1, player.toString());
+            try (ResultSet result = statement.executeQuery()) {
+                if (!result.next()) {
+                    return 0;
+                }
+                return (long) SpawnTableCodec.decode(result.getBytes(1)).getWorld("world").getX();
+            }
+        }
+    }
+    
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, message);
+            Thread.sleep(20);
+        }
+    }
+}
\ No newline at end of file